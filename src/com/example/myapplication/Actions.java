@@ -3,18 +3,36 @@ import java.io.*;
 import java.net.*;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Actions extends Thread {
+    private static final String REDUCER_HOST = System.getProperty("foodapp.reducerHost", "127.0.0.1");
+    private static final int REDUCER_PORT = Integer.getInteger("foodapp.reducerPort", 4325);
+
+    // How long the Reducer waits for stores the workers already announced, override with -Dfoodapp.reduceTimeoutMs=N
+    private static final long REDUCE_TIMEOUT_MS = Long.getLong("foodapp.reduceTimeoutMs", 2000);
+
+    // Stores sent to the workers per round of a "manager" request, override with -Dfoodapp.ingestBatch=N
+    private static final int INGEST_BATCH = Integer.getInteger("foodapp.ingestBatch", 2000);
+
+    // Tags the partials of one search on the Reducer, unique across restarts of the Master
+    private static final AtomicLong nextReduceId = new AtomicLong(System.currentTimeMillis() << 16);
+
     ObjectInputStream in;
     ObjectOutputStream out;
-    String[][] workers; // Stores IP and port info for worker nodes
+    WorkerPool pool; // Long-lived connections to the worker nodes
+    StoreRouter router; // Finds the worker that owns a store
+    Rebalancer rebalancer; // Moves stores when workers join or leave
     int counterID;
 
-    public Actions(Socket connection, String[][] workers, int counterID) {
+    public Actions(Socket connection, WorkerPool pool, StoreRouter router, Rebalancer rebalancer, int counterID) {
         try {
+            connection.setTcpNoDelay(true); // one small reply per request, do not wait for Nagle
             out = new ObjectOutputStream(connection.getOutputStream());
             in = new ObjectInputStream(connection.getInputStream());
-            this.workers = workers;
+            this.pool = pool;
+            this.router = router;
+            this.rebalancer = rebalancer;
             this.counterID = counterID;
         } catch (IOException e) {
             e.printStackTrace();
@@ -30,47 +48,9 @@ public class Actions extends Thread {
                 ArrayList<Store> stores = (ArrayList<Store>) in.readObject();
                 int successCount = 0;
 
-                for (Store store : stores) {
-                    Socket workerSocket = null;
-                    ObjectOutputStream outWorker = null;
-                    ObjectInputStream inWorker = null;
-
-                    try {
-                        // Select worker using hash function
-                        int workerId = Math.abs(store.getStoreName().hashCode()) % workers.length;
-                        String workerIP = workers[workerId][0];
-                        int workerPort = Integer.parseInt(workers[workerId][1]);
-
-                        // Connect to selected worker
-                        workerSocket = new Socket(workerIP, workerPort);
-                        outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                        inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                        // Send to worker
-                        outWorker.writeObject("manager");
-                        outWorker.flush();
-
-                        outWorker.writeObject(store);
-                        outWorker.flush();
-
-                        // Read from worker
-                        String response = (String) inWorker.readObject();
-
-                        if ("Store added successfully" .equals(response)) {
-                            successCount++;
-                        }
-
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            if (inWorker != null) inWorker.close();
-                            if (outWorker != null) outWorker.close();
-                            if (workerSocket != null) workerSocket.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                // A batch per worker at a time, all workers in parallel
+                for (int from = 0; from < stores.size(); from += INGEST_BATCH) {
+                    successCount += pool.addStores(router, stores.subList(from, Math.min(stores.size(), from + INGEST_BATCH)), null);
                 }
 
                 // Send to manager
@@ -82,50 +62,69 @@ public class Actions extends Thread {
                 out.flush();
 
 
-            } else if (role.equals("findStore")) {
-                // Receive from manager
-                String storeName = (String) in.readObject(); // Get store name to find the object store
+            } else if (role.equals("managerStream")) {
+                // Receive from manager batches of stores until null, answering each one with the
+                // stores added. The manager waits for these answers, so it reads its file no faster
+                // than the workers add the stores.
+                int received = 0;
+                int successCount = 0;
+                ArrayList<Store> batch;
+                while ((batch = (ArrayList<Store>) in.readObject()) != null) {
+                    int added = 0;
+                    for (int from = 0; from < batch.size(); from += INGEST_BATCH) {
+                        added += pool.addStores(router, batch.subList(from, Math.min(batch.size(), from + INGEST_BATCH)), null);
+                    }
+                    received += batch.size();
+                    successCount += added;
 
-                Socket workerSocket = null;
-                ObjectOutputStream outWorker = null;
-                ObjectInputStream inWorker = null;
+                    // Send to manager
+                    out.writeObject(added);
+                    out.flush();
+                }
 
-                try {
-                    // Select worker using hash of store name
-                    int workerId = Math.abs(storeName.hashCode()) % workers.length;
-                    String workerIP = workers[workerId][0];
-                    int workerPort = Integer.parseInt(workers[workerId][1]);
+                // Send to manager
+                if (successCount == received) {
+                    out.writeObject("Store(s) added successfully");
+                } else {
+                    out.writeObject("Some stores failed to add");
+                }
+                out.flush();
 
-                    // Connect to selected worker
-                    workerSocket = new Socket(workerIP, workerPort);
-                    outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                    inWorker = new ObjectInputStream(workerSocket.getInputStream());
+            } else if (role.equals("importCatalogue")) {
+                // Receive from manager a directory of catalogues this machine can read
+                String dir = (String) in.readObject();
 
-                    // Send to worker
-                    outWorker.writeObject("findStore");
-                    outWorker.flush();
+                String report;
+                try {
+                    report = new CatalogueImport(pool, router, INGEST_BATCH).importDirectory(new File(dir));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    report = "Import failed: " + e.getMessage();
+                }
+                System.out.println("[Master] " + report.split("\n")[0]);
 
-                    outWorker.writeObject(storeName);
-                    outWorker.flush();
+                // Send to manager
+                out.writeObject(report);
+                out.flush();
+
+            } else if (role.equals("findStore")) {
+                // Receive from manager
+                String storeName = (String) in.readObject(); // Get store name to find the object store
 
+                try {
+                    // Select the worker that owns the store
+                    int workerId = router.workerFor(storeName);
 
-                    // Receive from worker
-                    String response = (String) inWorker.readObject();
+                    // Send to worker and receive the reply
+                    Object[] reply = pool.call(workerId, "findStore", storeName);
+                    String response = (String) reply[0];
 
                     // Send to manager
                     out.writeObject(response);
                     out.flush();
 
-                } catch (IOException | ClassNotFoundException e) {
+                } catch (IOException e) {
                     e.printStackTrace();
-                } finally {
-                    try {
-                        if (inWorker != null) inWorker.close();
-                        if (outWorker != null) outWorker.close();
-                        if (workerSocket != null) workerSocket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
                 }
 
             } else if (role.equals("findProduct")) {
@@ -133,96 +132,40 @@ public class Actions extends Thread {
                 String storeName = (String) in.readObject();
                 String ProductName = (String) in.readObject();
 
-                Socket workerSocket = null;
-                ObjectOutputStream outWorker = null;
-                ObjectInputStream inWorker = null;
-
                 try {
-                    // Select worker using hash of store name
-                    int workerId = Math.abs(storeName.hashCode()) % workers.length;
-                    String workerIP = workers[workerId][0];
-                    int workerPort = Integer.parseInt(workers[workerId][1]);
-
-                    // Connect to selected worker
-                    workerSocket = new Socket(workerIP, workerPort);
-                    outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                    inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                    // Send to worker
-                    outWorker.writeObject("findProduct");
-                    outWorker.flush();
-
-                    outWorker.writeObject(storeName);
-                    outWorker.flush();
+                    // Select the worker that owns the store
+                    int workerId = router.workerFor(storeName);
 
-                    outWorker.writeObject(ProductName);
-                    outWorker.flush();
-
-                    // Receive from worker
-                    String response = (String) inWorker.readObject();
+                    // Send to worker and receive the reply
+                    Object[] reply = pool.call(workerId, "findProduct", storeName, ProductName);
+                    String response = (String) reply[0];
 
                     // Send to manager
                     out.writeObject(response);
                     out.flush();
 
-                } catch (IOException | ClassNotFoundException e) {
+                } catch (IOException e) {
                     e.printStackTrace();
-                } finally {
-                    try {
-                        if (inWorker != null) inWorker.close();
-                        if (outWorker != null) outWorker.close();
-                        if (workerSocket != null) workerSocket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
                 }
             } else if (role.equals("findProduct2")) {
                 // Receive from manager
                 String storeName = (String) in.readObject();
                 String ProductName = (String) in.readObject();
 
-                Socket workerSocket = null;
-                ObjectOutputStream outWorker = null;
-                ObjectInputStream inWorker = null;
-
                 try {
-                    // Select worker using hash of store name
-                    int workerId = Math.abs(storeName.hashCode()) % workers.length;
-                    String workerIP = workers[workerId][0];
-                    int workerPort = Integer.parseInt(workers[workerId][1]);
-
-                    // Connect to selected worker
-                    workerSocket = new Socket(workerIP, workerPort);
-                    outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                    inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                    // Send to worker
-                    outWorker.writeObject("findProduct2");
-                    outWorker.flush();
+                    // Select the worker that owns the store
+                    int workerId = router.workerFor(storeName);
 
-                    outWorker.writeObject(storeName);
-                    outWorker.flush();
-
-                    outWorker.writeObject(ProductName);
-                    outWorker.flush();
-
-                    // Receive from worker
-                    String response = (String) inWorker.readObject();
+                    // Send to worker and receive the reply
+                    Object[] reply = pool.call(workerId, "findProduct2", storeName, ProductName);
+                    String response = (String) reply[0];
 
                     // Send to manager
                     out.writeObject(response);
                     out.flush();
 
-                } catch (IOException | ClassNotFoundException e) {
+                } catch (IOException e) {
                     e.printStackTrace();
-                } finally {
-                    try {
-                        if (inWorker != null) inWorker.close();
-                        if (outWorker != null) outWorker.close();
-                        if (workerSocket != null) workerSocket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
                 }
             } else if (role.equals("AmountInc")) {
                 // Receive from manager
@@ -230,51 +173,23 @@ public class Actions extends Thread {
                 String ProductName = (String) in.readObject();
                 int amount = (int) in.readInt();
 
-                Socket workerSocket = null;
-                ObjectOutputStream outWorker = null;
-                ObjectInputStream inWorker = null;
-
+                router.beginWrite(storeName); // waits while the store is being migrated
                 try {
-                    // Select worker using hash of store name
-                    int workerId = Math.abs(storeName.hashCode()) % workers.length;
-                    String workerIP = workers[workerId][0];
-                    int workerPort = Integer.parseInt(workers[workerId][1]);
+                    // Select the worker that owns the store
+                    int workerId = router.workerFor(storeName);
 
-                    // Connect to selected worker
-                    workerSocket = new Socket(workerIP, workerPort);
-                    outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                    inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                    // Send to worker
-                    outWorker.writeObject("AmountInc");
-                    outWorker.flush();
-
-                    outWorker.writeObject(storeName);
-                    outWorker.flush();
-
-                    outWorker.writeObject(ProductName);
-                    outWorker.flush();
-
-                    outWorker.writeInt(amount);
-                    outWorker.flush();
-
-                    // Receive from worker
-                    String response = (String) inWorker.readObject();
+                    // Send to worker and receive the reply
+                    Object[] reply = pool.call(workerId, "AmountInc", storeName, ProductName, amount);
+                    String response = (String) reply[0];
 
                     // Send to manager
                     out.writeObject(response);
                     out.flush();
 
-                } catch (IOException | ClassNotFoundException e) {
+                } catch (IOException e) {
                     e.printStackTrace();
                 } finally {
-                    try {
-                        if (inWorker != null) inWorker.close();
-                        if (outWorker != null) outWorker.close();
-                        if (workerSocket != null) workerSocket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                    router.endWrite(storeName);
                 }
 
             } else if (role.equals("NewProduct")) {
@@ -282,48 +197,23 @@ public class Actions extends Thread {
                 String storeName = (String) in.readObject();
                 Product pro = (Product) in.readObject();
 
-                Socket workerSocket = null;
-                ObjectOutputStream outWorker = null;
-                ObjectInputStream inWorker = null;
-
+                router.beginWrite(storeName); // waits while the store is being migrated
                 try {
-                    // Select worker using hash of store name
-                    int workerId = Math.abs(storeName.hashCode()) % workers.length;
-                    String workerIP = workers[workerId][0];
-                    int workerPort = Integer.parseInt(workers[workerId][1]);
-
-                    // Connect to selected worker
-                    workerSocket = new Socket(workerIP, workerPort);
-                    outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                    inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                    // Send to worker
-                    outWorker.writeObject("NewProduct");
-                    outWorker.flush();
+                    // Select the worker that owns the store
+                    int workerId = router.workerFor(storeName);
 
-                    outWorker.writeObject(storeName);
-                    outWorker.flush();
-
-                    outWorker.writeObject(pro);
-                    outWorker.flush();
-
-                    // Receive from worker
-                    String response = (String) inWorker.readObject();
+                    // Send to worker and receive the reply
+                    Object[] reply = pool.call(workerId, "NewProduct", storeName, pro);
+                    String response = (String) reply[0];
 
                     // Send to manager
                     out.writeObject(response);
                     out.flush();
 
-                } catch (IOException | ClassNotFoundException e) {
+                } catch (IOException e) {
                     e.printStackTrace();
                 } finally {
-                    try {
-                        if (inWorker != null) inWorker.close();
-                        if (outWorker != null) outWorker.close();
-                        if (workerSocket != null) workerSocket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                    router.endWrite(storeName);
                 }
 
             } else if (role.equals("remove")) {
@@ -331,48 +221,23 @@ public class Actions extends Thread {
                 String storeName = (String) in.readObject();
                 String productName = (String) in.readObject();
 
-                Socket workerSocket = null;
-                ObjectOutputStream outWorker = null;
-                ObjectInputStream inWorker = null;
-
+                router.beginWrite(storeName); // waits while the store is being migrated
                 try {
-                    // Select worker using hash of store name
-                    int workerId = Math.abs(storeName.hashCode()) % workers.length;
-                    String workerIP = workers[workerId][0];
-                    int workerPort = Integer.parseInt(workers[workerId][1]);
-
-                    // Connect to selected worker
-                    workerSocket = new Socket(workerIP, workerPort);
-                    outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                    inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                    // Send to worker
-                    outWorker.writeObject("remove");
-                    outWorker.flush();
+                    // Select the worker that owns the store
+                    int workerId = router.workerFor(storeName);
 
-                    outWorker.writeObject(storeName);
-                    outWorker.flush();
-
-                    outWorker.writeObject(productName);
-                    outWorker.flush();
-
-                    // Receive from worker
-                    String response = (String) inWorker.readObject();
+                    // Send to worker and receive the reply
+                    Object[] reply = pool.call(workerId, "remove", storeName, productName);
+                    String response = (String) reply[0];
 
                     // Send to manager
                     out.writeObject(response);
                     out.flush();
 
-                } catch (IOException | ClassNotFoundException e) {
+                } catch (IOException e) {
                     e.printStackTrace();
                 } finally {
-                    try {
-                        if (inWorker != null) inWorker.close();
-                        if (outWorker != null) outWorker.close();
-                        if (workerSocket != null) workerSocket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                    router.endWrite(storeName);
                 }
 
             } else if (role.equals("AmountDec")) {
@@ -381,51 +246,23 @@ public class Actions extends Thread {
                 String ProductName = (String) in.readObject();
                 int amount = (int) in.readInt();
 
-                Socket workerSocket = null;
-                ObjectOutputStream outWorker = null;
-                ObjectInputStream inWorker = null;
-
+                router.beginWrite(storeName); // waits while the store is being migrated
                 try {
-                    // Select worker using hash of store name
-                    int workerId = Math.abs(storeName.hashCode()) % workers.length;
-                    String workerIP = workers[workerId][0];
-                    int workerPort = Integer.parseInt(workers[workerId][1]);
-
-                    // Connect to selected worker
-                    workerSocket = new Socket(workerIP, workerPort);
-                    outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                    inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                    // Send to worker
-                    outWorker.writeObject("AmountDec");
-                    outWorker.flush();
-
-                    outWorker.writeObject(storeName);
-                    outWorker.flush();
-
-                    outWorker.writeObject(ProductName);
-                    outWorker.flush();
-
-                    outWorker.writeInt(amount);
-                    outWorker.flush();
+                    // Select the worker that owns the store
+                    int workerId = router.workerFor(storeName);
 
-                    // Receive from worker
-                    String response = (String) inWorker.readObject();
+                    // Send to worker and receive the reply
+                    Object[] reply = pool.call(workerId, "AmountDec", storeName, ProductName, amount);
+                    String response = (String) reply[0];
 
                     // Send to manager
                     out.writeObject(response);
                     out.flush();
 
-                } catch (IOException | ClassNotFoundException e) {
+                } catch (IOException e) {
                     e.printStackTrace();
                 } finally {
-                    try {
-                        if (inWorker != null) inWorker.close();
-                        if (outWorker != null) outWorker.close();
-                        if (workerSocket != null) workerSocket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                    router.endWrite(storeName);
                 }
 
 
@@ -435,72 +272,20 @@ public class Actions extends Thread {
 
                 ArrayList<Map<String, Integer>> allResults = new ArrayList<>();
 
-                for (int i = 0; i < workers.length; i++) { // for all the workers
-                    Socket workerSocket = null;
-                    ObjectOutputStream outWorker = null;
-                    ObjectInputStream inWorker = null;
-
-                    try {
-                        String workerIP = workers[i][0];
-                        int workerPort = Integer.parseInt(workers[i][1]);
-
-                        // Connect to the worker
-                        workerSocket = new Socket(workerIP, workerPort);
-                        outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                        inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                        // Send to worker
-                        outWorker.writeObject("storeType");
-                        outWorker.flush();
-
-                        outWorker.writeObject(storeType);
-                        outWorker.flush();
-
-                        // Receive from worker
-                        Map<String, Integer> partial = (Map<String, Integer>) inWorker.readObject();
-                        allResults.add(partial);
-
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            if (inWorker != null) inWorker.close();
-                            if (outWorker != null) outWorker.close();
-                            if (workerSocket != null) workerSocket.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-
-                // Connect to reducer
-                Socket reducerSocket = new Socket("127.0.0.1", 4325);
-                ObjectOutputStream outReducer = new ObjectOutputStream(reducerSocket.getOutputStream());
-                ObjectInputStream inReducer = new ObjectInputStream(reducerSocket.getInputStream());
-
-                // Send to reducer
-                outReducer.writeObject("storeType");
-                outReducer.flush();
-
-                outReducer.writeObject(workers.length); // how many workers exists
-                outReducer.flush();
-
-                for (Map<String, Integer> partial : allResults) {
-                    outReducer.writeObject(partial); // sends all the partial results to the reducer
-                    outReducer.flush();
+                // Send to all workers at once and gather the replies that arrive in time
+                for (Object[] reply : pool.scatter("storeType", storeType)) {
+                    Map<String, Integer> partial = (Map<String, Integer>) reply[0];
+                    allResults.add(partial);
                 }
 
-                // Read from reducer
-                Map<String, Integer> finalResult = (Map<String, Integer>) inReducer.readObject();
+                // Send all the partial results to the reducer and receive the merged one
+                Object[] reduced = callReducer("storeType", allResults);
+                Map<String, Integer> finalResult = (Map<String, Integer>) reduced[0];
 
                 // Send to manager
                 out.writeObject(finalResult);
                 out.flush();
 
-                outReducer.close();
-                inReducer.close();
-                reducerSocket.close();
-
 
             } else if (role.equals("productCategory")) {
                 // Read from manager
@@ -508,156 +293,55 @@ public class Actions extends Thread {
 
                 ArrayList<Map<String, Integer>> allResults = new ArrayList<>();
 
-                for (int i = 0; i < workers.length; i++) { // for all workers
-                    Socket workerSocket = null;
-                    ObjectOutputStream outWorker = null;
-                    ObjectInputStream inWorker = null;
-
-                    try {
-                        String workerIP = workers[i][0];
-                        int workerPort = Integer.parseInt(workers[i][1]);
-
-                        // Connect to the worker
-                        workerSocket = new Socket(workerIP, workerPort);
-                        outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                        inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                        // Send to worker
-                        outWorker.writeObject("productCategory");
-                        outWorker.flush();
-
-                        outWorker.writeObject(productCategory);
-                        outWorker.flush();
-
-                        // Receive from worker
-                        Map<String, Integer> partial = (Map<String, Integer>) inWorker.readObject();
-                        allResults.add(partial);
-
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            if (inWorker != null) inWorker.close();
-                            if (outWorker != null) outWorker.close();
-                            if (workerSocket != null) workerSocket.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                // Send to all workers at once and gather the replies that arrive in time
+                for (Object[] reply : pool.scatter("productCategory", productCategory)) {
+                    Map<String, Integer> partial = (Map<String, Integer>) reply[0];
+                    allResults.add(partial);
                 }
 
-                // Connect to reducer
-                Socket reducerSocket = new Socket("127.0.0.1", 4325);
-                ObjectOutputStream outReducer = new ObjectOutputStream(reducerSocket.getOutputStream());
-                ObjectInputStream inReducer = new ObjectInputStream(reducerSocket.getInputStream());
+                // Send all the partial results to the reducer and receive the merged one
+                Object[] reduced = callReducer("productCategory", allResults);
+                Map<String, Integer> finalResult = (Map<String, Integer>) reduced[0];
 
-                // Send to reducer
-                outReducer.writeObject("productCategory");
-                outReducer.flush();
-
-                outReducer.writeObject(workers.length); // how many workers exists
-                outReducer.flush();
+                // Send to manager
+                out.writeObject(finalResult);
+                out.flush();
 
-                for (Map<String, Integer> partial : allResults) {
-                    outReducer.writeObject(partial); // sends all the partial results to the reducer
-                    outReducer.flush();
+            } else if (role.equals("salesWindow")) {
+                // Receive from manager
+                String storeType = (String) in.readObject(); // "" for every store type
+                String by = (String) in.readObject();        // SalesRollup.ALL, CATEGORY or PRODUCT
+                String key = (String) in.readObject();       // e.g., "pizza"
+                String window = (String) in.readObject();    // e.g., "30m"
+
+                ArrayList<Map<String, Integer>> allUnits = new ArrayList<>();
+                ArrayList<Map<String, Double>> allRevenue = new ArrayList<>();
+
+                // Send to all workers at once and gather the replies that arrive in time
+                for (Object[] reply : pool.scatter("salesWindow", storeType, by, key, window)) {
+                    allUnits.add((Map<String, Integer>) reply[0]);
+                    allRevenue.add((Map<String, Double>) reply[1]);
                 }
 
-                // Receive from reducer
-                Map<String, Integer> finalResult = (Map<String, Integer>) inReducer.readObject();
+                // Send all the partial results to the reducer and receive the merged one
+                Object[] reduced = callReducer("salesWindow", allUnits, allRevenue);
 
                 // Send to manager
-                out.writeObject(finalResult);
+                out.writeObject(reduced[0]);
+                out.writeObject(reduced[1]);
                 out.flush();
 
-                outReducer.close();
-                inReducer.close();
-                reducerSocket.close();
-
             } else if (role.equals("client")) {
-                String responseId = null;
-
                 // Receive from client
                 String clientId = (String) in.readObject();
                 MapReduceRequest request = (MapReduceRequest) in.readObject();
 
-                ArrayList<Store> allStoresFromWorkers = new ArrayList<>();
-
-                for (int i = 0; i < workers.length; i++) { // for all workers
-                    Socket workerSocket = null;
-                    ObjectOutputStream outWorker = null;
-                    ObjectInputStream inWorker = null;
-
-                    try {
-                        String workerIP = workers[i][0];
-                        int workerPort = Integer.parseInt(workers[i][1]);
-
-                        // Connect to the worker
-                        workerSocket = new Socket(workerIP, workerPort);
-                        outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                        inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                        // Send to worker
-                        outWorker.writeObject("client");
-                        outWorker.flush();
-
-                        outWorker.writeObject(clientId);
-                        outWorker.flush();
-
-                        outWorker.writeObject(request);
-                        outWorker.flush();
-
-                        // Receive from worker
-                        responseId = (String) inWorker.readObject();
-                        ArrayList<Store> partialResult = (ArrayList<Store>) inWorker.readObject();
-
-                        if (partialResult != null && clientId.equals(responseId)) { // Ensure clientId matches and result is not null
-                            allStoresFromWorkers.addAll(partialResult);
-                        }
-
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            if (inWorker != null) inWorker.close();
-                            if (outWorker != null) outWorker.close();
-                            if (workerSocket != null) workerSocket.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-
-                // Στέλνουμε όλα τα αποτελέσματα στον reducer
-                Socket reducerSocket = null;
-                ObjectOutputStream outReducer = null;
-                ObjectInputStream inReducer = null;
-
+                // The workers send their stores to the reducer, which sends back the merged list
                 try {
-                    // Connect to reducer
-                    reducerSocket = new Socket("127.0.0.1", 4325);
-                    outReducer = new ObjectOutputStream(reducerSocket.getOutputStream());
-                    inReducer = new ObjectInputStream(reducerSocket.getInputStream());
-
-                    // Send to reducer
-                    outReducer.writeObject("client");
-                    outReducer.flush();
-
-                    outReducer.writeObject(clientId);
-                    outReducer.flush();
-
-                    outReducer.writeObject(1); // Sending 1 as we are sending one consolidated batch
-                    outReducer.flush();
-
-                    outReducer.writeObject(clientId); // Send clientId as the requestIdFromMaster for the batch
-                    outReducer.flush();
-
-                    outReducer.writeObject(allStoresFromWorkers); // Send the consolidated list
-                    outReducer.flush();
-
-                    // Receive from reducer
-                    String overallClientId = (String) inReducer.readObject(); // Renamed for clarity
-                    ArrayList<Store> finalResult = (ArrayList<Store>) inReducer.readObject();
+                    Object[] reduced = search("client", clientId, request);
+                    String overallClientId = (String) reduced[0];
+                    ArrayList<StoreSummary> finalResult = (ArrayList<StoreSummary>) reduced[1];
+                    String nextCursor = (String) reduced[2];
 
                     // Send to client
                     out.writeObject(overallClientId);
@@ -666,101 +350,23 @@ public class Actions extends Thread {
                     out.writeObject(finalResult);
                     out.flush();
 
+                    out.writeObject(nextCursor);
+                    out.flush();
+
                 } catch (Exception e) {
                     e.printStackTrace();
-                } finally {
-                    try {
-                        if (inReducer != null) inReducer.close();
-                        if (outReducer != null) outReducer.close();
-                        if (reducerSocket != null) reducerSocket.close();
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    }
                 }
             } else if (role.equals("filter")) {
-                String responseId = null;
-
                 // Receive from client
                 String clientId = (String) in.readObject();
                 MapReduceRequest request = (MapReduceRequest) in.readObject();
 
-                ArrayList<Store> allStoresFromWorkers = new ArrayList<>();
-
-                for (int i = 0; i < workers.length; i++) { // for all workers
-                    Socket workerSocket = null;
-                    ObjectOutputStream outWorker = null;
-                    ObjectInputStream inWorker = null;
-
-                    try {
-                        String workerIP = workers[i][0];
-                        int workerPort = Integer.parseInt(workers[i][1]);
-
-                        // Connect to the worker
-                        workerSocket = new Socket(workerIP, workerPort);
-                        outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                        inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                        // Send to worker
-                        outWorker.writeObject("filter"); // Send "filter" role to worker
-                        outWorker.flush();
-
-                        outWorker.writeObject(clientId);
-                        outWorker.flush();
-
-                        outWorker.writeObject(request);
-                        outWorker.flush();
-
-                        // Receive from worker
-                        responseId = (String) inWorker.readObject();
-                        ArrayList<Store> partialResult = (ArrayList<Store>) inWorker.readObject();
-
-                        if (partialResult != null && clientId.equals(responseId)) { // Ensure clientId matches and result is not null
-                            allStoresFromWorkers.addAll(partialResult);
-                        }
-
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            if (inWorker != null) inWorker.close();
-                            if (outWorker != null) outWorker.close();
-                            if (workerSocket != null) workerSocket.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-
-                // Send all results to the reducer
-                Socket reducerSocket = null;
-                ObjectOutputStream outReducer = null;
-                ObjectInputStream inReducer = null;
-
+                // The workers send their stores to the reducer, which sends back the merged list
                 try {
-                    // Connect to reducer
-                    reducerSocket = new Socket("127.0.0.1", 4325);
-                    outReducer = new ObjectOutputStream(reducerSocket.getOutputStream());
-                    inReducer = new ObjectInputStream(reducerSocket.getInputStream());
-
-                    // Send to reducer
-                    outReducer.writeObject("filter"); // Send "filter" role to reducer
-                    outReducer.flush();
-
-                    outReducer.writeObject(clientId);
-                    outReducer.flush();
-
-                    outReducer.writeObject(1); // Sending 1 as we are sending one consolidated batch
-                    outReducer.flush();
-
-                    outReducer.writeObject(clientId); // Send clientId as the requestIdFromMaster for the batch
-                    outReducer.flush();
-
-                    outReducer.writeObject(allStoresFromWorkers); // Send the consolidated list
-                    outReducer.flush();
-
-                    // Receive from reducer
-                    String overallClientId = (String) inReducer.readObject(); // Renamed for clarity
-                    ArrayList<Store> finalResult = (ArrayList<Store>) inReducer.readObject();
+                    Object[] reduced = search("filter", clientId, request);
+                    String overallClientId = (String) reduced[0];
+                    ArrayList<StoreSummary> finalResult = (ArrayList<StoreSummary>) reduced[1];
+                    String nextCursor = (String) reduced[2];
 
                     // Send to client
                     out.writeObject(overallClientId);
@@ -769,16 +375,11 @@ public class Actions extends Thread {
                     out.writeObject(finalResult);
                     out.flush();
 
+                    out.writeObject(nextCursor);
+                    out.flush();
+
                 } catch (Exception e) {
                     e.printStackTrace();
-                } finally {
-                    try {
-                        if (inReducer != null) inReducer.close();
-                        if (outReducer != null) outReducer.close();
-                        if (reducerSocket != null) reducerSocket.close();
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    }
                 }
             } else if (role.equals("fetchProducts")) {
 
@@ -789,48 +390,23 @@ public class Actions extends Thread {
 
                 String store = (String) in.readObject();
 
+                String cursor = (String) in.readObject(); // null for the first page
+
+                int pageSize = (Integer) in.readObject(); // 0 for all products
+
                 ArrayList<Product> results = new ArrayList<>();
+                String nextCursor = null;
 
-                for (int i = 0; i < workers.length; i++) { // for all workers
-                    Socket workerSocket = null;
-                    ObjectOutputStream outWorker = null;
-                    ObjectInputStream inWorker = null;
-
-                    try {
-                        String workerIP = workers[i][0];
-                        int workerPort = Integer.parseInt(workers[i][1]);
-
-                        // Connect to the worker
-                        workerSocket = new Socket(workerIP, workerPort);
-                        outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                        inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                        // Send to worker
-                        outWorker.writeObject("fetchProducts");
-                        outWorker.flush();
-
-                        outWorker.writeObject(clientId);
-                        outWorker.flush();
-
-                        outWorker.writeObject(store);
-                        outWorker.flush();
-
-                        // Receive from worker
-                        responseId = (String) inWorker.readObject();
-                        results = (ArrayList<Product>) inWorker.readObject();
-
-
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            if (inWorker != null) inWorker.close();
-                            if (outWorker != null) outWorker.close();
-                            if (workerSocket != null) workerSocket.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                try {
+                    // Only the worker that owns the store and its replicas have its products
+                    Object[] reply = pool.callRead(router.workerFor(store), "fetchProducts", clientId, store, cursor, pageSize);
+                    responseId = (String) reply[0];
+                    results = (ArrayList<Product>) reply[1];
+                    nextCursor = (String) reply[2];
+
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    responseId = clientId; // answer with an empty list instead of leaving the client without a reply
                 }
 
                 // Send to client
@@ -840,6 +416,9 @@ public class Actions extends Thread {
                 out.writeObject(results);
                 out.flush();
 
+                out.writeObject(nextCursor);
+                out.flush();
+
 
             } else if (role.equals("purchase")) {
 
@@ -854,49 +433,19 @@ public class Actions extends Thread {
 
                 String results = null;
 
-                for (int i = 0; i < workers.length; i++) { // for all workers
-                    Socket workerSocket = null;
-                    ObjectOutputStream outWorker = null;
-                    ObjectInputStream inWorker = null;
-
-                    try {
-                        String workerIP = workers[i][0];
-                        int workerPort = Integer.parseInt(workers[i][1]);
-
-                        // Connect to the worker
-                        workerSocket = new Socket(workerIP, workerPort);
-                        outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                        inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                        // Send to worker
-                        outWorker.writeObject("purchase");
-                        outWorker.flush();
-
-                        outWorker.writeObject(clientId);
-                        outWorker.flush();
-
-                        outWorker.writeObject(pur);
-                        outWorker.flush();
-
-                        outWorker.writeObject(name);
-                        outWorker.flush();
-
-                        // Receive from worker
-                        responseId = (String) inWorker.readObject();
-                        results = (String) inWorker.readObject();
-
+                router.beginWrite(name); // waits while the store is being migrated
+                try {
+                    // Only the worker that owns the store can sell its products
+                    Object[] reply = pool.call(router.workerFor(name), "purchase", clientId, pur, name);
+                    responseId = (String) reply[0];
+                    results = (String) reply[1];
 
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            if (inWorker != null) inWorker.close();
-                            if (outWorker != null) outWorker.close();
-                            if (workerSocket != null) workerSocket.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    responseId = clientId;
+                    results = "Purchase failed: the store is not reachable right now";
+                } finally {
+                    router.endWrite(name);
                 }
 
                 // Send to client
@@ -917,49 +466,19 @@ public class Actions extends Thread {
 
                 String results = null;
 
-                for (int i = 0; i < workers.length; i++) { // for all workers
-                    Socket workerSocket = null;
-                    ObjectOutputStream outWorker = null;
-                    ObjectInputStream inWorker = null;
-
-                    try {
-                        String workerIP = workers[i][0];
-                        int workerPort = Integer.parseInt(workers[i][1]);
-
-                        // Connect to the worker
-                        workerSocket = new Socket(workerIP, workerPort);
-                        outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                        inWorker = new ObjectInputStream(workerSocket.getInputStream());
-
-                        // Send to the worker
-                        outWorker.writeObject("rate");
-                        outWorker.flush();
-
-                        outWorker.writeObject(clientId);
-                        outWorker.flush();
-
-                        outWorker.writeObject(store);
-                        outWorker.flush();
-
-                        outWorker.writeObject(rating);
-                        outWorker.flush();
-
-                        // Receive from worker
-                        responseId = (String) inWorker.readObject();
-                        results = (String) inWorker.readObject();
-
+                router.beginWrite(store); // waits while the store is being migrated
+                try {
+                    // Only the worker that owns the store keeps its rating
+                    Object[] reply = pool.call(router.workerFor(store), "rate", clientId, store, rating);
+                    responseId = (String) reply[0];
+                    results = (String) reply[1];
 
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            if (inWorker != null) inWorker.close();
-                            if (outWorker != null) outWorker.close();
-                            if (workerSocket != null) workerSocket.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    responseId = clientId;
+                    results = "Rating failed: the store is not reachable right now";
+                } finally {
+                    router.endWrite(store);
                 }
 
                 // Send to client
@@ -973,52 +492,108 @@ public class Actions extends Thread {
                 String storeName = (String) in.readObject();
 
                 // Βρες σε ποιον worker ανήκει το κατάστημα
-                int workerId = Math.abs(storeName.hashCode()) % workers.length;
-                String workerIP = workers[workerId][0];
-                int workerPort = Integer.parseInt(workers[workerId][1]);
-
-                Socket workerSocket = null;
-                ObjectOutputStream outWorker = null;
-                ObjectInputStream inWorker = null;
+                int workerId = router.workerFor(storeName);
 
                 try {
-                    // Connect to the worker
-                    workerSocket = new Socket(workerIP, workerPort);
-                    outWorker = new ObjectOutputStream(workerSocket.getOutputStream());
-                    inWorker = new ObjectInputStream(workerSocket.getInputStream());
+                    // Send to worker and receive the reply
+                    Object[] reply = pool.call(workerId, "customerPurchasesByStore", customerName, storeName);
+                    Map<String, Integer> result = (Map<String, Integer>) reply[0];
 
-                    // Send to worker
-                    outWorker.writeObject("customerPurchasesByStore");
-                    outWorker.flush();
+                    // Send to client
+                    out.writeObject(result);
+                    out.flush();
 
-                    outWorker.writeObject(customerName);
-                    outWorker.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else if (role.equals("addWorker")) {
+                // Receive from manager
+                String workerIP = (String) in.readObject();
+                int workerPort = (int) in.readObject();
 
-                    outWorker.writeObject(storeName);
-                    outWorker.flush();
+                String response;
+                try {
+                    response = rebalancer.addWorker(workerIP, workerPort);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    response = "Rebalancing failed: " + e.getMessage();
+                }
 
-                    // Receive from worker
-                    Map<String, Integer> result = (Map<String, Integer>) inWorker.readObject();
+                // Send to manager
+                out.writeObject(response);
+                out.flush();
 
-                    // Send to client
-                    out.writeObject(result);
-                    out.flush();
+            } else if (role.equals("removeWorker")) {
+                // Receive from manager
+                int workerId = (int) in.readObject();
 
-                } catch (IOException | ClassNotFoundException e) {
+                String response;
+                try {
+                    response = rebalancer.removeWorker(workerId);
+                } catch (IOException e) {
                     e.printStackTrace();
-                } finally {
-                    try {
-                        if (inWorker != null) inWorker.close();
-                        if (outWorker != null) outWorker.close();
-                        if (workerSocket != null) workerSocket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                    response = "Rebalancing failed: " + e.getMessage();
                 }
+
+                // Send to manager
+                out.writeObject(response);
+                out.flush();
             }
 
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
     }
+
+    // Runs a search on all workers. Each worker streams the stores it found straight to the Reducer,
+    // which merges them as they arrive and answers here once every worker that replied has reported.
+    // Returns the client id, the stores of the page and the cursor of the next page, or null.
+    private Object[] search(String role, String clientId, MapReduceRequest request) throws IOException {
+        long reduceId = nextReduceId.incrementAndGet();
+        try (Socket reducerSocket = new Socket(REDUCER_HOST, REDUCER_PORT)) {
+            reducerSocket.setSoTimeout((int) WorkerPool.REQUEST_TIMEOUT_MS);
+            MessageStream reducer = MessageStream.connect(reducerSocket);
+
+            // Send role to all workers, or their replicas, at once and count the replies that arrive in time
+            int shards = 0;
+            for (Object[] reply : pool.scatterReads(role, clientId, request, reduceId, REDUCER_HOST, REDUCER_PORT)) {
+                shards++;
+                if (reply[1] != null && clientId.equals(reply[0])) {
+                    // That worker could not reach the reducer, pass its stores on
+                    reducer.writeMessage(new WorkerRequest(reduceId, "partialStores", new Object[]{clientId, reply[1], request}));
+                }
+            }
+
+            // Send to reducer
+            reducer.writeMessage(new WorkerRequest(reduceId, role, new Object[]{clientId, shards, REDUCE_TIMEOUT_MS}));
+
+            // Receive from reducer
+            Object[] reduced = ((WorkerResponse) reducer.readMessage()).getValues();
+            ArrayList<StoreSummary> stores = (ArrayList<StoreSummary>) reduced[1];
+
+            // The workers keep one store more than the page, it tells that another page follows
+            String nextCursor = null;
+            int pageSize = request.getLimit();
+            if (pageSize > 0 && stores.size() > pageSize) {
+                stores = new ArrayList<>(stores.subList(0, pageSize));
+                nextCursor = PageCursor.afterStore(stores.get(pageSize - 1), request);
+            }
+            return new Object[]{reduced[0], stores, nextCursor};
+        }
+    }
+
+    // Sends one request to the Reducer and returns the values of its reply
+    private Object[] callReducer(String role, Object... args) throws IOException {
+        try (Socket reducerSocket = new Socket(REDUCER_HOST, REDUCER_PORT)) {
+            reducerSocket.setSoTimeout((int) WorkerPool.REQUEST_TIMEOUT_MS); // a reducer that never answers fails the request
+            MessageStream reducer = MessageStream.connect(reducerSocket);
+
+            // Send to reducer
+            reducer.writeMessage(new WorkerRequest(0, role, args));
+
+            // Receive from reducer
+            WorkerResponse response = (WorkerResponse) reducer.readMessage();
+            return response.getValues();
+        }
+    }
 }
@@ -0,0 +1,335 @@
+package com.example.myapplication;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Imports every *.json catalogue of a directory, in the store.json format, on the Master.
+// Each file is memory-mapped and scanned once for where each store starts and ends; the
+// stores are then parsed in parallel on a fork-join pool, one task per range of stores.
+// Parsed stores go straight to one sender thread per worker, which sends them in
+// "addStores" batches. The senders' queues are bounded, so parsing waits for slow workers;
+// a parse task that waits lets the pool start a spare thread, up to THREADS more.
+// Files over 2 GB cannot be mapped at once and are reported as failed; the Manager's
+// streaming load reads those.
+public class CatalogueImport {
+    // Stores parsed by one task before it is split no further
+    private static final int PARSE_CHUNK = 256;
+
+    // Batches a sender may have waiting, override with -Dfoodapp.importQueue=N
+    private static final int SENDER_QUEUE = Integer.getInteger("foodapp.importQueue", 64);
+
+    // Threads that parse, override with -Dfoodapp.importThreads=N
+    private static final int THREADS = Integer.getInteger("foodapp.importThreads", Runtime.getRuntime().availableProcessors());
+
+    private final WorkerPool pool;
+    private final StoreRouter router;
+    private final int batchSize;
+
+    private final AtomicInteger parsed = new AtomicInteger();
+    private final AtomicInteger added = new AtomicInteger();
+    private final List<String> skipped = Collections.synchronizedList(new ArrayList<>());
+    private final Map<Integer, Sender> senders = new HashMap<>();
+
+    public CatalogueImport(WorkerPool pool, StoreRouter router, int batchSize) {
+        this.pool = pool;
+        this.router = router;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    // Imports the directory and returns a report of what was imported and how fast
+    public String importDirectory(File dir) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.toLowerCase().endsWith(".json"));
+        if (files == null) {
+            throw new IOException(dir + " is not a directory");
+        }
+        Arrays.sort(files);
+
+        long start = System.nanoTime();
+        for (int workerId = 0; workerId < pool.size(); workerId++) {
+            if (pool.isActive(workerId)) {
+                Sender sender = new Sender(workerId);
+                senders.put(workerId, sender);
+                sender.start();
+            }
+        }
+
+        int threads = Math.max(1, THREADS);
+        ForkJoinPool parsers = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, false,
+                0, 2 * threads, 1, pool -> true, 60, TimeUnit.SECONDS); // past the spares, waiting tasks wait without one
+        try {
+            ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (File file : files) {
+                tasks.add(parsers.submit(() -> importFile(file)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            parsers.shutdown();
+            for (Sender sender : senders.values()) {
+                sender.finish();
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Imported %d file(s): %d stores parsed, %d added, %d skipped in %.1f s, %.0f stores/s",
+                files.length, parsed.get(), added.get(), skipped.size(), seconds, parsed.get() / seconds));
+        synchronized (skipped) {
+            for (String reason : skipped) {
+                report.append("\nSkipped ").append(reason);
+            }
+        }
+        return report.toString();
+    }
+
+    private void importFile(File file) {
+        ByteRanges stores;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                skipped.add(file.getName() + ": larger than 2 GB, load it from the Manager instead");
+                return;
+            }
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            stores = ByteRanges.of(bytes);
+        } catch (IOException | IllegalArgumentException e) {
+            skipped.add(file.getName() + ": " + e.getMessage());
+            return;
+        }
+        new Parse(file.getName(), stores, 0, stores.count).invoke();
+    }
+
+    // Parses stores from..to of one file, splitting the range while it is large
+    private class Parse extends RecursiveAction {
+        final String fileName;
+        final ByteRanges stores;
+        final int from;
+        final int to;
+
+        Parse(String fileName, ByteRanges stores, int from, int to) {
+            this.fileName = fileName;
+            this.stores = stores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PARSE_CHUNK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Parse(fileName, stores, from, middle), new Parse(fileName, stores, middle, to));
+                return;
+            }
+
+            // Select the worker that owns each store
+            Map<Integer, ArrayList<Store>> byWorker = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                String text = stores.text(i);
+                if (!text.startsWith("{")) {
+                    skipped.add(fileName + " store " + i + ": not a JSON object"); // as CatalogueReader reports it
+                    continue;
+                }
+                try {
+                    Store store = CatalogueReader.toStore(new JSONObject(text));
+                    parsed.incrementAndGet();
+                    byWorker.computeIfAbsent(router.workerFor(store.getStoreName()), id -> new ArrayList<>()).add(store);
+                } catch (JSONException | IllegalArgumentException e) {
+                    skipped.add(fileName + " store " + i + ": " + e.getMessage());
+                }
+            }
+            for (Map.Entry<Integer, ArrayList<Store>> batch : byWorker.entrySet()) {
+                send(batch.getKey(), batch.getValue());
+            }
+        }
+    }
+
+    private void send(int workerId, ArrayList<Store> stores) {
+        // A worker added since the import started has no sender, any sender routes the stores again
+        Sender sender = senders.containsKey(workerId) ? senders.get(workerId) : senders.values().stream().findFirst().orElse(null);
+        if (sender == null) {
+            skipped.add(stores.size() + " stores: no worker to send them to");
+            return;
+        }
+        Put put = new Put(sender, stores);
+        try {
+            ForkJoinPool.managedBlock(put); // waits while the sender is full
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!put.done) {
+            skipped.add(stores.size() + " stores for worker " + workerId + ": the sender stopped");
+        }
+    }
+
+    // Puts a batch in the queue of a sender, giving up if the sender is no longer running
+    private static class Put implements ForkJoinPool.ManagedBlocker {
+        final Sender sender;
+        final ArrayList<Store> stores;
+        boolean done;
+
+        Put(Sender sender, ArrayList<Store> stores) {
+            this.sender = sender;
+            this.stores = stores;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            while (!done && sender.isAlive()) {
+                done = sender.queue.offer(stores, 100, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done || (done = sender.queue.offer(stores)) || !sender.isAlive();
+        }
+    }
+
+    // Sends the stores parsed for one worker, as few large batches as the queue allows
+    private class Sender extends Thread {
+        final int workerId;
+        final LinkedBlockingQueue<ArrayList<Store>> queue = new LinkedBlockingQueue<>(SENDER_QUEUE);
+        volatile boolean finished;
+
+        Sender(int workerId) {
+            this.workerId = workerId;
+            setName("CatalogueImport-" + workerId);
+            setDaemon(true);
+        }
+
+        void finish() {
+            finished = true;
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            ArrayList<Store> batch = new ArrayList<>();
+            try {
+                while (!finished || !queue.isEmpty()) {
+                    ArrayList<Store> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.addAll(first);
+                    ArrayList<Store> next;
+                    while (batch.size() < batchSize && (next = queue.poll()) != null) {
+                        batch.addAll(next);
+                    }
+                    try {
+                        // A migration may have moved some of them since they were parsed, so they are routed again
+                        added.addAndGet(pool.addStores(router, batch, skipped));
+                    } catch (RuntimeException e) {
+                        e.printStackTrace(); // the next batches are still sent
+                        skipped.add(batch.size() + " stores for worker " + workerId + ": " + e);
+                    }
+                    batch = new ArrayList<>();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Where each element of the top-level JSON array of a file starts and ends, found in
+    // one pass over the bytes that only follows strings and nesting. Elements that are not
+    // objects or arrays are kept too, so they are reported as skipped like any other bad store.
+    private static class ByteRanges {
+        final MappedByteBuffer bytes;
+        int[] starts = new int[1024];
+        int[] ends = new int[1024];
+        int count;
+
+        static ByteRanges of(MappedByteBuffer bytes) {
+            ByteRanges ranges = new ByteRanges(bytes);
+            int depth = 0;
+            boolean inString = false;
+            boolean topString = false; // the string is an element of the array itself
+            int start = -1;
+            int limit = bytes.limit();
+            for (int i = 0; i < limit; i++) {
+                byte b = bytes.get(i);
+                if (inString) {
+                    if (b == '\\') {
+                        i++; // the escaped character cannot end the string
+                    } else if (b == '"') {
+                        inString = false;
+                        if (topString) {
+                            topString = false;
+                            ranges.add(start, i + 1);
+                        }
+                    }
+                    continue;
+                }
+                if (b == '"') {
+                    inString = true;
+                    if (depth == 1) {
+                        topString = true;
+                        start = i;
+                    }
+                } else if (b == '{' || b == '[') {
+                    if (depth == 1) {
+                        start = i;
+                    }
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                    if (depth == 1) {
+                        ranges.add(start, i + 1);
+                    } else if (depth < 0) {
+                        throw new IllegalArgumentException("unbalanced " + (char) b + " at byte " + i);
+                    }
+                } else if (depth == 0 && b > ' ') {
+                    throw new IllegalArgumentException("a catalogue is a JSON array of stores, found " + (char) b + " at byte " + i);
+                } else if (depth == 1 && b > ' ' && b != ',') {
+                    // A number, true, false or null, up to the next separator
+                    int end = i + 1;
+                    while (end < limit && bytes.get(end) > ' ' && bytes.get(end) != ',' && bytes.get(end) != ']') {
+                        end++;
+                    }
+                    ranges.add(i, end);
+                    i = end - 1;
+                }
+            }
+            if (depth != 0 || inString) {
+                throw new IllegalArgumentException("the file ends inside a store");
+            }
+            return ranges;
+        }
+
+        ByteRanges(MappedByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        void add(int start, int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        // The JSON text of element i, decoded from the mapped file
+        String text(int i) {
+            byte[] element = new byte[ends[i] - starts[i]];
+            bytes.get(starts[i], element);
+            return new String(element, StandardCharsets.UTF_8);
+        }
+    }
+}
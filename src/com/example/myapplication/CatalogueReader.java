@@ -0,0 +1,136 @@
+package com.example.myapplication;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+// Reads a catalogue in the store.json format, an array of stores, one store at a time.
+// Only the store being read is in memory, so a file of any size can be loaded.
+// Every store is checked before it is returned; a store with a missing or wrong field is
+// skipped and the reason is kept, the stores after it are still read.
+public class CatalogueReader implements Closeable {
+    private final Reader reader;
+    private final JSONTokener tokener;
+    private final ArrayList<String> skipped = new ArrayList<>();
+    private int position; // index of the next store in the array
+    private boolean started;
+    private boolean finished;
+
+    public CatalogueReader(Reader reader) {
+        this.reader = reader;
+        this.tokener = new JSONTokener(reader);
+    }
+
+    // Returns the next valid store, or null at the end of the array
+    public Store next() throws IOException {
+        try {
+            if (!started) {
+                started = true;
+                if (tokener.nextClean() != '[') {
+                    throw new IOException("A catalogue is a JSON array of stores");
+                }
+                if (tokener.nextClean() == ']') {
+                    finished = true;
+                } else {
+                    tokener.back();
+                }
+            }
+            while (!finished) {
+                Object value = tokener.nextValue();
+                int index = position++;
+
+                char separator = tokener.nextClean();
+                if (separator == ']') {
+                    finished = true;
+                } else if (separator != ',') {
+                    throw new IOException("Expected , or ] after store " + index + " at " + tokener);
+                }
+
+                if (!(value instanceof JSONObject)) {
+                    skipped.add("Store " + index + ": not a JSON object");
+                    continue;
+                }
+                try {
+                    return toStore((JSONObject) value);
+                } catch (IllegalArgumentException e) {
+                    skipped.add("Store " + index + ": " + e.getMessage());
+                }
+            }
+            return null;
+        } catch (JSONException e) {
+            throw new IOException("Malformed catalogue: " + e.getMessage(), e);
+        }
+    }
+
+    // The stores that were skipped so far, with the reason
+    public ArrayList<String> getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // Builds a store from one element of the catalogue. Throws IllegalArgumentException
+    // naming the first field that is missing or out of range.
+    public static Store toStore(JSONObject json) {
+        String name = text(json, "StoreName");
+        double latitude = number(json, "Latitude", -90, 90).doubleValue();
+        double longitude = number(json, "Longitude", -180, 180).doubleValue();
+        String category = text(json, "FoodCategory");
+        double stars = number(json, "Stars", 0, 5).doubleValue();
+        int reviews = number(json, "NoOfVotes", 0, Integer.MAX_VALUE).intValue();
+        String storeLogoPath = json.optString("StoreLogo", null);
+
+        // Read product list
+        ArrayList<Product> products = new ArrayList<>();
+        JSONArray productsArray = json.optJSONArray("Products");
+        if (productsArray == null) {
+            throw new IllegalArgumentException("Products is missing or not an array");
+        }
+        for (int i = 0; i < productsArray.length(); i++) {
+            JSONObject productJson = productsArray.optJSONObject(i);
+            if (productJson == null) {
+                throw new IllegalArgumentException("product " + i + " is not a JSON object");
+            }
+            try {
+                String productName = text(productJson, "ProductName");
+                String productType = text(productJson, "ProductType");
+                int amount = number(productJson, "AvailableAmount", 0, Integer.MAX_VALUE).intValue();
+                double productPrice = number(productJson, "Price", 0, Double.MAX_VALUE).doubleValue();
+
+                products.add(new Product(productName, productType, amount, productPrice));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("product " + i + ": " + e.getMessage());
+            }
+        }
+
+        return new Store(name, latitude, longitude, category, stars, reviews, storeLogoPath, products);
+    }
+
+    private static String text(JSONObject json, String field) {
+        Object value = json.opt(field);
+        if (!(value instanceof String) || ((String) value).isBlank()) {
+            throw new IllegalArgumentException(field + " is missing or not a text");
+        }
+        return (String) value;
+    }
+
+    private static Number number(JSONObject json, String field, double min, double max) {
+        Object value = json.opt(field);
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException(field + " is missing or not a number");
+        }
+        double number = ((Number) value).doubleValue();
+        if (Double.isNaN(number) || number < min || number > max) {
+            throw new IllegalArgumentException(field + " is " + value + ", expected " + min + " to " + max);
+        }
+        return (Number) value;
+    }
+}
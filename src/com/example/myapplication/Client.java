@@ -5,6 +5,9 @@ import java.net.UnknownHostException;
 import java.util.*;
 
 public class Client {
+    private static final int NEARBY_PAGE_SIZE = 10; // nearest stores shown at a time
+    private static final int PRODUCT_PAGE_SIZE = 20; // products shown at a time
+
     public static void main(String[] args) throws IOException {
         Scanner sc = new Scanner(System.in);
         String clientId = UUID.randomUUID().toString();
@@ -23,6 +26,8 @@ public class Client {
                 Socket requestSocket = null;
                 ObjectOutputStream out = null;
                 ObjectInputStream in = null;
+                MapReduceRequest request = null;
+                String nextCursor = null;
                 try {
                     // Connect to master
                     requestSocket = new Socket("localhost", 4321);
@@ -43,7 +48,7 @@ public class Client {
                     double lon = Double.parseDouble(sc.nextLine());
 
                     // Create MapReduceRequest with default filters
-                    MapReduceRequest request = new MapReduceRequest(
+                    request = new MapReduceRequest(
                             lat,
                             lon,
                             new ArrayList<>(), // No category filter
@@ -52,6 +57,8 @@ public class Client {
                             5.0,               // 5km radius
                             "android-ui-request"
                     );
+                    request.setSortBy(StoreRanking.DISTANCE); // nearest first, one page at a time
+                    request.setLimit(NEARBY_PAGE_SIZE);
 
                     out.writeObject(request);
                     out.flush();
@@ -60,14 +67,15 @@ public class Client {
 
                     // Receive from master
                     String responseClientId = (String) in.readObject();
-                    ArrayList<Store> results = (ArrayList<Store>) in.readObject();
+                    ArrayList<StoreSummary> results = (ArrayList<StoreSummary>) in.readObject();
+                    nextCursor = (String) in.readObject(); // null when there are no more stores
 
                     if (clientId.equals(responseClientId)) {
                         if (results.isEmpty()) {
                             System.out.println("No nearby stores found within 5 km.");
                         } else {
                             System.out.println("\nNearby Stores:");
-                            for (Store store : results) {
+                            for (StoreSummary store : results) {
                                 System.out.println(store);
                                 System.out.println("-----------");
                                 System.out.println("\n");
@@ -75,6 +83,7 @@ public class Client {
                         }
                     }else{
                         System.out.println("[ERROR] Client ID mismatch! Results may be invalid.");
+                        nextCursor = null;
                     }
 
                 } catch (Exception e) {
@@ -89,11 +98,14 @@ public class Client {
                         ioException.printStackTrace();
                     }
                 }
+                showMoreStores(sc, "client", clientId, request, nextCursor);
 
             }else if (option.equals("2")) {
                 Socket requestSocket = null;
                 ObjectOutputStream out = null;
                 ObjectInputStream in = null;
+                MapReduceRequest request = null;
+                String nextCursor = null;
                 try {
                     // Connect to master
                     requestSocket = new Socket("localhost", 4321);
@@ -132,8 +144,22 @@ public class Client {
                     System.out.print("Enter price category ($, $$, $$$) or leave empty: ");
                     String price = sc.nextLine().trim();
 
+                    System.out.print("Sort by (distance, stars, reviews, score) or leave empty: ");
+                    String sortBy = sc.nextLine().trim().toLowerCase();
+                    if (!sortBy.isEmpty() && !Arrays.asList(StoreRanking.DISTANCE, StoreRanking.STARS, StoreRanking.REVIEWS, StoreRanking.SCORE).contains(sortBy)) {
+                        System.out.println("Unknown sort, the stores will not be sorted.");
+                        sortBy = "";
+                    }
+
+                    System.out.print("Stores per page (leave empty for all): ");
+                    String limitInput = sc.nextLine().trim();
+                    int limit = 0;
+                    if (!limitInput.isEmpty()) {
+                        limit = Integer.parseInt(limitInput);
+                    }
+
 
-                    MapReduceRequest request = new MapReduceRequest(
+                    request = new MapReduceRequest(
                                 latitude,
                                 longitude,
                                 categories,
@@ -142,6 +168,8 @@ public class Client {
                                 5.0, // radius in km
                             "android-ui-request"
                         );
+                    request.setSortBy(sortBy);
+                    request.setLimit(limit);
 
                         out.writeObject(request);
                         out.flush();
@@ -150,19 +178,21 @@ public class Client {
 
                         // Receive from master
                         String responseID = (String) in.readObject();
-                        ArrayList<Store> results = (ArrayList<Store>) in.readObject();
+                        ArrayList<StoreSummary> results = (ArrayList<StoreSummary>) in.readObject();
+                        nextCursor = (String) in.readObject(); // null when there are no more stores
                         if(responseID.equals(clientId)) {
                             if (results.isEmpty()) {
                                 System.out.println("No stores found matching your filters.");
                             } else {
                                 System.out.println("\nFiltered Stores:");
-                                for (Store store : results) {
+                                for (StoreSummary store : results) {
                                     System.out.println(store);
                                     System.out.println("-----------");
                                 }
                             }
                         }else{
                             System.out.println("[ERROR] Client ID mismatch! Results may be invalid.");
+                            nextCursor = null;
                         }
 
 
@@ -178,6 +208,7 @@ public class Client {
                         ioException.printStackTrace();
                     }
                 }
+                showMoreStores(sc, "filter", clientId, request, nextCursor);
 
             }else if (option.equals("3")) {
                 String storeName = null;
@@ -203,9 +234,16 @@ public class Client {
                     out.writeObject(storeName);
                     out.flush();
 
+                    out.writeObject(null); // no cursor, the first page
+                    out.flush();
+
+                    out.writeObject(PRODUCT_PAGE_SIZE);
+                    out.flush();
+
                     // Receive from master
                     String responseId = (String) in.readObject();
                     ArrayList<Product> storeProducts = (ArrayList<Product>) in.readObject();
+                    String nextCursor = (String) in.readObject(); // null when there are no more products
 
                     if(responseId.equals(clientId)) {
                         if (storeProducts.isEmpty()) {
@@ -217,6 +255,7 @@ public class Client {
                         for (Product p : storeProducts) {
                             System.out.println("- " + p.getName() + " (" + p.getCategory() + ") - " + p.getPrice() + "€ | Available: " + p.getQuantity());
                         }
+                        showMoreProducts(sc, clientId, storeName, nextCursor);
                     }else{
                         System.out.println("[ERROR] Client ID mismatch! Results may be invalid.");
                         continue;
@@ -363,4 +402,94 @@ public class Client {
             }
         }
     }
+
+    // Asks the master for the next pages of a search for as long as the user wants more
+    private static void showMoreStores(Scanner sc, String role, String clientId, MapReduceRequest request, String cursor) {
+        while (cursor != null) {
+            System.out.print("Show more stores? (y/n): ");
+            if (!sc.nextLine().trim().equalsIgnoreCase("y")) {
+                return;
+            }
+            request.setCursor(cursor);
+
+            try (Socket requestSocket = new Socket("localhost", 4321)) {
+                ObjectOutputStream out = new ObjectOutputStream(requestSocket.getOutputStream());
+                ObjectInputStream in = new ObjectInputStream(requestSocket.getInputStream());
+
+                // Send to master
+                out.writeObject(role);
+                out.flush();
+
+                out.writeObject(clientId);
+                out.flush();
+
+                out.writeObject(request);
+                out.flush();
+
+                // Receive from master
+                String responseId = (String) in.readObject();
+                ArrayList<StoreSummary> results = (ArrayList<StoreSummary>) in.readObject();
+                cursor = (String) in.readObject();
+
+                if (!clientId.equals(responseId)) {
+                    System.out.println("[ERROR] Client ID mismatch! Results may be invalid.");
+                    return;
+                }
+                for (StoreSummary store : results) {
+                    System.out.println(store);
+                    System.out.println("-----------");
+                }
+            } catch (Exception e) {
+                System.err.println("Error connecting to server: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // Asks the master for the next pages of the products of a store for as long as the user wants more
+    private static void showMoreProducts(Scanner sc, String clientId, String storeName, String cursor) {
+        while (cursor != null) {
+            System.out.print("Show more products? (y/n): ");
+            if (!sc.nextLine().trim().equalsIgnoreCase("y")) {
+                return;
+            }
+
+            try (Socket requestSocket = new Socket("localhost", 4321)) {
+                ObjectOutputStream out = new ObjectOutputStream(requestSocket.getOutputStream());
+                ObjectInputStream in = new ObjectInputStream(requestSocket.getInputStream());
+
+                // Send to master
+                out.writeObject("fetchProducts");
+                out.flush();
+
+                out.writeObject(clientId);
+                out.flush();
+
+                out.writeObject(storeName);
+                out.flush();
+
+                out.writeObject(cursor);
+                out.flush();
+
+                out.writeObject(PRODUCT_PAGE_SIZE);
+                out.flush();
+
+                // Receive from master
+                String responseId = (String) in.readObject();
+                ArrayList<Product> products = (ArrayList<Product>) in.readObject();
+                cursor = (String) in.readObject();
+
+                if (!clientId.equals(responseId)) {
+                    System.out.println("[ERROR] Client ID mismatch! Results may be invalid.");
+                    return;
+                }
+                for (Product p : products) {
+                    System.out.println("- " + p.getName() + " (" + p.getCategory() + ") - " + p.getPrice() + "€ | Available: " + p.getQuantity());
+                }
+            } catch (Exception e) {
+                System.err.println("Error connecting to server: " + e.getMessage());
+                return;
+            }
+        }
+    }
 }
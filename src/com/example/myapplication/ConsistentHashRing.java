@@ -0,0 +1,113 @@
+package com.example.myapplication;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Consistent-hash ring that places stores on workers.
+// Every worker owns several virtual nodes (points on the ring) and a key belongs to the
+// first point clockwise from its hash. Adding or removing a worker only moves the keys
+// between its points and their neighbours, instead of reshuffling almost every store
+// like hashCode() % workers does.
+// A ring is never changed after it is handed to the router: withNode/withoutNode return a new one.
+public class ConsistentHashRing {
+    private final int virtualNodes;
+    private final TreeMap<Long, Integer> points = new TreeMap<>(); // position on the ring -> worker id
+    private final TreeSet<Integer> nodes = new TreeSet<>();
+
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be at least 1, got " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    // Ring with workers 0 .. numWorkers-1
+    public static ConsistentHashRing of(int numWorkers, int virtualNodes) {
+        ConsistentHashRing ring = new ConsistentHashRing(virtualNodes);
+        for (int i = 0; i < numWorkers; i++) {
+            ring.add(i);
+        }
+        return ring;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public Set<Integer> getNodes() {
+        return Collections.unmodifiableSet(nodes);
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    // Returns the worker that owns the key
+    public int nodeFor(String key) {
+        if (points.isEmpty()) {
+            throw new IllegalStateException("The ring has no workers");
+        }
+        Map.Entry<Long, Integer> owner = points.ceilingEntry(hash(key));
+        if (owner == null) {
+            owner = points.firstEntry(); // wrap around
+        }
+        return owner.getValue();
+    }
+
+    // Returns a copy of this ring that also contains the worker
+    public ConsistentHashRing withNode(int nodeId) {
+        ConsistentHashRing copy = copy();
+        copy.add(nodeId);
+        return copy;
+    }
+
+    // Returns a copy of this ring without the worker
+    public ConsistentHashRing withoutNode(int nodeId) {
+        ConsistentHashRing copy = copy();
+        copy.remove(nodeId);
+        return copy;
+    }
+
+    private ConsistentHashRing copy() {
+        ConsistentHashRing copy = new ConsistentHashRing(virtualNodes);
+        copy.points.putAll(points);
+        copy.nodes.addAll(nodes);
+        return copy;
+    }
+
+    private void add(int nodeId) {
+        if (!nodes.add(nodeId)) return;
+        for (int v = 0; v < virtualNodes; v++) {
+            // On the rare collision the first owner keeps the point
+            points.putIfAbsent(hash("worker-" + nodeId + "#" + v), nodeId);
+        }
+    }
+
+    private void remove(int nodeId) {
+        if (!nodes.remove(nodeId)) return;
+        points.values().removeIf(owner -> owner == nodeId);
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes, followed by a final mix so that similar
+    // names ("Store 1", "Store 2") land far apart. Stable across JVMs, unlike identity hashes.
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashRing{" +
+                "nodes=" + nodes +
+                ", virtualNodes=" + virtualNodes +
+                '}';
+    }
+}
@@ -26,18 +26,7 @@ public class DistanceCalculator {
     
     // Haversine formula για υπολογισμό απόστασης
     public static double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        final double R = 6371; // Earth's radius in km
-        
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        
-        double a = Math.sin(dLat/2) * Math.sin(dLat/2) +
-                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                   Math.sin(dLon/2) * Math.sin(dLon/2);
-        
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
-        
-        return R * c;
+        return GeoDistance.haversineKm(lat1, lon1, lat2, lon2);
     }
     
     static class Store {
@@ -0,0 +1,127 @@
+package com.example.myapplication;
+
+// Great-circle distances in kilometers, shared by the workers' radius searches.
+// Two modes:
+//  - "haversine": exact on a sphere of radius EARTH_RADIUS_KM
+//  - "equirectangular": flat projection around the mean latitude, one cosine per store
+//    instead of the sines, cosine and arctangent of haversine.
+//    Its error grows with the square of the distance, TestGeoDistance measures below
+//    0.01% at 100 km for latitudes up to 60 degrees.
+// Override with -Dfoodapp.distanceMode=equirectangular (default haversine).
+public class GeoDistance {
+    public static final double EARTH_RADIUS_KM = 6371.0;
+    public static final String MODE = System.getProperty("foodapp.distanceMode", "haversine");
+
+    private GeoDistance() {
+    }
+
+    // Exact great-circle distance in km
+    public static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                   Math.sin(dLon / 2) * Math.sin(dLon / 2);
+
+        return 2 * EARTH_RADIUS_KM * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    // Approximate distance in km, close to haversine for short distances
+    public static double equirectangularKm(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(wrapLongitude(lon2 - lon1)) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return EARTH_RADIUS_KM * Math.sqrt(x * x + y * y);
+    }
+
+    private static double wrapLongitude(double degrees) {
+        if (degrees > 180) return degrees - 360;
+        if (degrees < -180) return degrees + 360;
+        return degrees;
+    }
+
+    // The points within radiusKm of a center. Everything that does not depend on the
+    // store is computed once, and contains() rejects points outside the bounding box
+    // before any trigonometry runs.
+    public static class Circle {
+        private final double centerLat;
+        private final double centerLon;
+        private final double radiusKm;
+        private final boolean exact;
+
+        private final double minLat, maxLat, minLon, maxLon; // bounding box in degrees
+        private final boolean wrapsLongitude;                // the box crosses the antimeridian
+
+        private final double cosCenterLat;
+        private final double maxHaversine;  // sin^2(d / 2R) at d = radius, so no asin/sqrt per store
+        private final double maxAngleSquared; // (radius / R)^2 for the equirectangular mode
+
+        public Circle(double centerLat, double centerLon, double radiusKm) {
+            this(centerLat, centerLon, radiusKm, !MODE.equalsIgnoreCase("equirectangular"));
+        }
+
+        public Circle(double centerLat, double centerLon, double radiusKm, boolean exact) {
+            this.centerLat = centerLat;
+            this.centerLon = centerLon;
+            this.radiusKm = radiusKm;
+            this.exact = exact;
+
+            double angle = Math.max(0, radiusKm) / EARTH_RADIUS_KM; // radians
+            double dLat = Math.toDegrees(angle);
+            minLat = Math.max(-90, centerLat - dLat);
+            maxLat = Math.min(90, centerLat + dLat);
+
+            // Longitude degrees shrink with cos(latitude); near a pole every longitude is in range
+            double cosLat = Math.cos(Math.toRadians(centerLat));
+            if (maxLat >= 90 || minLat <= -90 || angle >= Math.PI / 2 || Math.sin(angle) >= cosLat) {
+                minLon = -180;
+                maxLon = 180;
+                wrapsLongitude = false;
+            } else {
+                double dLon = Math.toDegrees(Math.asin(Math.sin(angle) / cosLat));
+                minLon = centerLon - dLon;
+                maxLon = centerLon + dLon;
+                wrapsLongitude = minLon < -180 || maxLon > 180;
+            }
+
+            cosCenterLat = cosLat;
+            double half = Math.sin(Math.min(angle, Math.PI) / 2);
+            maxHaversine = half * half;
+            maxAngleSquared = angle * angle;
+        }
+
+        public double getMinLat() { return minLat; }
+        public double getMaxLat() { return maxLat; }
+        public double getMinLon() { return minLon; }
+        public double getMaxLon() { return maxLon; }
+        public double getRadiusKm() { return radiusKm; }
+
+        // Great-circle distance from the center, for points contains() accepted
+        public double distanceKm(double lat, double lon) {
+            return haversineKm(centerLat, centerLon, lat, lon);
+        }
+
+        public boolean contains(double lat, double lon) {
+            // Cheap rejection first
+            if (lat < minLat || lat > maxLat) {
+                return false;
+            }
+            if (!wrapsLongitude && (lon < minLon || lon > maxLon)) {
+                return false;
+            }
+
+            double dLat = Math.toRadians(lat - centerLat);
+            double dLon = Math.toRadians(wrapLongitude(lon - centerLon));
+
+            if (exact) {
+                double sinLat = Math.sin(dLat / 2);
+                double sinLon = Math.sin(dLon / 2);
+                double a = sinLat * sinLat + cosCenterLat * Math.cos(Math.toRadians(lat)) * sinLon * sinLon;
+                return a <= maxHaversine;
+            }
+
+            double x = dLon * Math.cos(Math.toRadians((lat + centerLat) / 2));
+            return x * x + dLat * dLat <= maxAngleSquared;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Grid over latitude/longitude that finds the stores inside a bounding box without
+// looking at every store. The world is cut into square cells of CELL_DEGREES and
+// only the cells that hold stores are kept, so a query only visits the cells that
+// overlap the box.
+public class GeoGridIndex {
+    // Cell side in degrees, override with -Dfoodapp.gridCellDegrees=D (0.01 is about 1.1 km of latitude)
+    public static final double CELL_DEGREES = Double.parseDouble(System.getProperty("foodapp.gridCellDegrees", "0.01"));
+
+    private final double cellDegrees;
+    private final ConcurrentHashMap<Long, Set<Store>> cells = new ConcurrentHashMap<>(); // cell id -> stores in it
+
+    // Blocks of BLOCK x BLOCK cells with the number of stores in each, so that count() visits
+    // a few blocks instead of every cell of a large box
+    private static final int BLOCK = 16;
+    private final ConcurrentHashMap<Long, Integer> blocks = new ConcurrentHashMap<>(); // block id -> stores in it
+
+    public GeoGridIndex() {
+        this(CELL_DEGREES);
+    }
+
+    public GeoGridIndex(double cellDegrees) {
+        if (!(cellDegrees > 0)) {
+            throw new IllegalArgumentException("cellDegrees must be positive, got " + cellDegrees);
+        }
+        this.cellDegrees = cellDegrees;
+    }
+
+    public void add(Store store) {
+        cells.compute(cellOf(store), (id, stores) -> {
+            if (stores == null) {
+                stores = ConcurrentHashMap.newKeySet();
+            }
+            if (stores.add(store)) {
+                blocks.merge(blockOf(id), 1, Integer::sum);
+            }
+            return stores;
+        });
+    }
+
+    public void remove(Store store) {
+        // An empty cell is dropped so that it is not visited again
+        cells.computeIfPresent(cellOf(store), (id, stores) -> {
+            if (stores.remove(store)) {
+                blocks.merge(blockOf(id), -1, (count, one) -> count + one == 0 ? null : count + one);
+            }
+            return stores.isEmpty() ? null : stores;
+        });
+    }
+
+    // Returns the stores of every cell that overlaps the box. The box is checked by cell,
+    // so the caller still has to check the exact distance of each store.
+    public ArrayList<Store> candidates(double minLat, double maxLat, double minLon, double maxLon) {
+        ArrayList<Store> result = new ArrayList<>();
+        visit(minLat, maxLat, minLon, maxLon, result);
+        return result;
+    }
+
+    // Number of stores in the blocks that overlap the box, at least as many as candidates()
+    // would return. Cheap enough to decide whether the box is worth visiting at all.
+    public long count(double minLat, double maxLat, double minLon, double maxLon) {
+        if (minLon < -180 || maxLon > 180) {
+            minLon = -180;
+            maxLon = 180;
+        }
+        long fromLat = Math.floorDiv(cell(Math.max(minLat, -90)), BLOCK);
+        long toLat = Math.floorDiv(cell(Math.min(maxLat, 90)), BLOCK);
+        long fromLon = Math.floorDiv(cell(minLon), BLOCK);
+        long toLon = Math.floorDiv(cell(maxLon), BLOCK);
+
+        long found = 0;
+        if ((toLat - fromLat + 1) * (toLon - fromLon + 1) > blocks.size()) {
+            for (Map.Entry<Long, Integer> entry : blocks.entrySet()) {
+                long latBlock = entry.getKey() >> 32;
+                long lonBlock = (int) entry.getKey().longValue();
+                if (latBlock >= fromLat && latBlock <= toLat && lonBlock >= fromLon && lonBlock <= toLon) {
+                    found += entry.getValue();
+                }
+            }
+            return found;
+        }
+        for (long latBlock = fromLat; latBlock <= toLat; latBlock++) {
+            for (long lonBlock = fromLon; lonBlock <= toLon; lonBlock++) {
+                Integer stores = blocks.get(id(latBlock, lonBlock));
+                if (stores != null) {
+                    found += stores;
+                }
+            }
+        }
+        return found;
+    }
+
+    private void visit(double minLat, double maxLat, double minLon, double maxLon, ArrayList<Store> result) {
+        if (minLon < -180 || maxLon > 180) {
+            // The box crosses the antimeridian, keep every longitude
+            minLon = -180;
+            maxLon = 180;
+        }
+        long fromLat = cell(Math.max(minLat, -90));
+        long toLat = cell(Math.min(maxLat, 90));
+        long fromLon = cell(minLon);
+        long toLon = cell(maxLon);
+
+        long boxCells = (toLat - fromLat + 1) * (toLon - fromLon + 1);
+        if (boxCells > cells.size()) {
+            // Large box: fewer cells hold stores than the box covers, so walk those instead
+            for (Map.Entry<Long, Set<Store>> entry : cells.entrySet()) {
+                long latCell = entry.getKey() >> 32;
+                long lonCell = (int) entry.getKey().longValue();
+                if (latCell >= fromLat && latCell <= toLat && lonCell >= fromLon && lonCell <= toLon) {
+                    result.addAll(entry.getValue());
+                }
+            }
+            return;
+        }
+
+        for (long latCell = fromLat; latCell <= toLat; latCell++) {
+            for (long lonCell = fromLon; lonCell <= toLon; lonCell++) {
+                Set<Store> stores = cells.get(id(latCell, lonCell));
+                if (stores != null) {
+                    result.addAll(stores);
+                }
+            }
+        }
+    }
+
+    // Number of cells that hold at least one store
+    public int cellCount() {
+        return cells.size();
+    }
+
+    private long cellOf(Store store) {
+        return id(cell(store.getLatitude()), cell(store.getLongitude()));
+    }
+
+    private static long blockOf(long cellId) {
+        return id(Math.floorDiv(cellId >> 32, BLOCK), Math.floorDiv((long) (int) cellId, BLOCK));
+    }
+
+    private long cell(double degrees) {
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long id(long latCell, long lonCell) {
+        return (latCell << 32) | (lonCell & 0xffffffffL);
+    }
+}
@@ -1,7 +1,5 @@
 
 package com.example.myapplication;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 
 import java.io.*;
@@ -12,6 +10,12 @@ import java.text.ParseException;
 import java.util.*;
 
 public class Manager {
+    // Stores per message when a catalogue is loaded, override with -Dfoodapp.loadBatch=N
+    private static final int LOAD_BATCH = Integer.getInteger("foodapp.loadBatch", 1000);
+
+    // Batches sent before waiting for the master to add the first one, override with -Dfoodapp.loadWindow=N
+    private static final int LOAD_WINDOW = Integer.getInteger("foodapp.loadWindow", 4);
+
     public static void main(String[] args) throws ParseException, FileNotFoundException {
         Scanner sc = new Scanner(System.in);
 
@@ -24,101 +28,99 @@ public class Manager {
             System.out.println("3.Remove Product");
             System.out.println("4.Total sales by store type");
             System.out.println("5.Total sales by product category");
-            System.out.println("6.Exit");
+            System.out.println("6.Add worker");
+            System.out.println("7.Remove worker");
+            System.out.println("8.Sales over a time window");
+            System.out.println("9.Exit");
             System.out.print("Choose an option: ");
             String number = sc.nextLine();
 
             if (number.equals("1")) {
-                ArrayList<Store> stores = new ArrayList<>();
-
                 System.out.print("Give the json file of the store: ");
                 String jsonPath = sc.nextLine();
 
-                try (FileReader reader = new FileReader(jsonPath)) {
+                if (new File(jsonPath).isDirectory()) {
+                    // A directory of catalogues is read by the master itself, all files in parallel
+                    importCatalogue(new File(jsonPath).getAbsolutePath());
+                    continue;
+                }
 
-                    StringBuilder contentBuilder = new StringBuilder();
-                    int c;
-                    while ((c = reader.read()) != -1) {
-                        contentBuilder.append((char) c); // Read JSON file content
-                    }
-                    String jsonContent = contentBuilder.toString();
-
-                    // Parse the JSON array
-                    JSONArray jsonArray = new JSONArray(jsonContent);
-
-                    // Loop through JSON objects (stores)
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        JSONObject jsonObject = jsonArray.getJSONObject(i);
-
-                        // Read store info
-                        String name = (String) jsonObject.get("StoreName");
-                        double latitude = ((Number) jsonObject.get("Latitude")).doubleValue();
-                        double longitude = ((Number) jsonObject.get("Longitude")).doubleValue();
-                        String category = (String) jsonObject.get("FoodCategory");
-                        double stars = ((Number) jsonObject.get("Stars")).doubleValue();
-                        int reviews = ((Number) jsonObject.get("NoOfVotes")).intValue();
-                        String storeLogoPath = (String) jsonObject.get("StoreLogo");
-
-                        // Read product list
-                        ArrayList<Product> products = new ArrayList<>();
-                        JSONArray productsArray = (JSONArray) jsonObject.get("Products");
-                        for (Object prodObj : productsArray) {
-                            JSONObject productJson = (JSONObject) prodObj;
-
-                            // Extract product fields
-                            String productName = (String) productJson.get("ProductName");
-                            String productType = (String) productJson.get("ProductType");
-                            int amount = ((Number) productJson.get("AvailableAmount")).intValue();
-                            double productPrice = ((Number) productJson.get("Price")).doubleValue();
-
-                            products.add(new Product(productName, productType, amount, productPrice));
-                        }
+                Socket requestSocket = null;
+                ObjectOutputStream out = null;
+                ObjectInputStream in = null;
+                // Read stores from the file while earlier batches are added by the workers
+                try (CatalogueReader catalogue = new CatalogueReader(new BufferedReader(new InputStreamReader(new FileInputStream(jsonPath), "UTF-8")))) {
+                    // Connect to master
+                    requestSocket = new Socket("localhost", 4321);
+                    out = new ObjectOutputStream(new BufferedOutputStream(requestSocket.getOutputStream()));
+                    out.flush();
+                    in = new ObjectInputStream(requestSocket.getInputStream());
 
-                        Store s = new Store(name, latitude, longitude, category, stars, reviews, storeLogoPath, products);
+                    // Send to master
+                    out.writeObject("managerStream");
+                    out.flush();
 
-                        stores.add(s);
-                        System.out.println(s);
-                    }
-                    Socket requestSocket = null;
-                    ObjectOutputStream out = null;
-                    ObjectInputStream in = null;
-                    try {
-                        // Connect to master
-                        requestSocket = new Socket("localhost", 4321);
-                        out = new ObjectOutputStream(requestSocket.getOutputStream());
-                        in = new ObjectInputStream(requestSocket.getInputStream());
+                    long start = System.currentTimeMillis();
+                    int sent = 0;
+                    int added = 0;
+                    int pending = 0; // batches sent that the master has not answered yet
+                    ArrayList<Store> batch = new ArrayList<>();
+                    Store store;
+                    do {
+                        store = catalogue.next();
+                        if (store != null) {
+                            batch.add(store);
+                        }
+                        if (batch.size() == LOAD_BATCH || (store == null && !batch.isEmpty())) {
+                            // Send to master
+                            out.writeObject(batch);
+                            out.reset(); // forget the stores sent, or both streams keep them all
+                            out.flush();
+                            sent += batch.size();
+                            pending++;
+                            batch = new ArrayList<>();
 
-                        // Send to master
-                        out.writeObject("manager");
-                        out.flush();
+                            // Wait for the master once LOAD_WINDOW batches are in flight
+                            if (pending == LOAD_WINDOW) {
+                                // Receive from master
+                                added += (Integer) in.readObject();
+                                pending--;
+                            }
+                        }
+                    } while (store != null);
 
-                        out.writeObject(stores);
-                        out.flush();
+                    // Send to master the end of the stores
+                    out.writeObject(null);
+                    out.flush();
 
-                        // Receive from master
-                        String res = (String) in.readObject();
-                        System.out.println(res);
-                        System.out.print("\n");
+                    // Receive from master
+                    for (; pending > 0; pending--) {
+                        added += (Integer) in.readObject();
+                    }
+                    String res = (String) in.readObject();
+                    System.out.println(res);
 
-                    } catch (UnknownHostException unknownHost) {
-                        System.err.println("You are trying to connect to an unknown host!");
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    } catch (ClassNotFoundException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            in.close();
-                            out.close();
-                            requestSocket.close();
-                        } catch (IOException ioException) {
-                            ioException.printStackTrace();
-                        }
+                    for (String reason : catalogue.getSkipped()) {
+                        System.out.println("Skipped " + reason);
                     }
+                    System.out.println(sent + " stores sent, " + added + " added, " + catalogue.getSkipped().size()
+                            + " skipped, in " + (System.currentTimeMillis() - start) + " ms");
+                    System.out.print("\n");
 
-                } catch (IOException e) {
+                } catch (UnknownHostException unknownHost) {
+                    System.err.println("You are trying to connect to an unknown host!");
+                } catch (IOException ioException) {
+                    ioException.printStackTrace();
+                } catch (ClassNotFoundException e) {
                     e.printStackTrace();
+                } finally {
+                    try {
+                        if (in != null) in.close();
+                        if (out != null) out.close();
+                        if (requestSocket != null) requestSocket.close();
+                    } catch (IOException ioException) {
+                        ioException.printStackTrace();
+                    }
                 }
 
             } else if (number.equals("2")) {
@@ -583,6 +585,148 @@ public class Manager {
 
 
             } else if (number.equals("6")) {
+                System.out.print("Enter the IP of the new worker: ");
+                String workerIP = sc.nextLine().trim();
+
+                System.out.print("Enter the port of the new worker: ");
+                int workerPort;
+                try {
+                    workerPort = Integer.parseInt(sc.nextLine().trim());
+                } catch (NumberFormatException e) {
+                    System.out.println("The port must be a number\n");
+                    continue;
+                }
+
+                // Connect to master, closed whatever happens
+                try (Socket requestSocket = new Socket("localhost", 4321);
+                     ObjectOutputStream out = new ObjectOutputStream(requestSocket.getOutputStream());
+                     ObjectInputStream in = new ObjectInputStream(requestSocket.getInputStream())) {
+
+                    // Send to master
+                    out.writeObject("addWorker");
+                    out.flush();
+
+                    out.writeObject(workerIP);
+                    out.flush();
+
+                    out.writeObject(workerPort);
+                    out.flush();
+
+                    // Receive from master
+                    String res = (String) in.readObject();
+                    System.out.println(res);
+                    System.out.print("\n");
+
+                } catch (UnknownHostException unknownHost) {
+                    System.err.println("You are trying to connect to an unknown host!");
+                } catch (IOException | ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+
+
+            } else if (number.equals("7")) {
+                System.out.print("Enter the id of the worker to remove (0 is the first worker given to the Master): ");
+                int workerId;
+                try {
+                    workerId = Integer.parseInt(sc.nextLine().trim());
+                } catch (NumberFormatException e) {
+                    System.out.println("The worker id must be a number\n");
+                    continue;
+                }
+
+                // Connect to master, closed whatever happens
+                try (Socket requestSocket = new Socket("localhost", 4321);
+                     ObjectOutputStream out = new ObjectOutputStream(requestSocket.getOutputStream());
+                     ObjectInputStream in = new ObjectInputStream(requestSocket.getInputStream())) {
+
+                    // Send to master
+                    out.writeObject("removeWorker");
+                    out.flush();
+
+                    out.writeObject(workerId);
+                    out.flush();
+
+                    // Receive from master
+                    String res = (String) in.readObject();
+                    System.out.println(res);
+                    System.out.print("\n");
+
+                } catch (UnknownHostException unknownHost) {
+                    System.err.println("You are trying to connect to an unknown host!");
+                } catch (IOException | ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+
+
+            } else if (number.equals("8")) {
+                System.out.print("Enter the store type (leave empty for all stores): ");
+                String storeType = sc.nextLine().trim();
+
+                System.out.println("1. All products");
+                System.out.println("2. A product category");
+                System.out.println("3. A product");
+                System.out.print("Choose an option: ");
+                String num = sc.nextLine().trim();
+
+                String by = SalesRollup.ALL;
+                String key = "";
+                if (num.equals("2")) {
+                    by = SalesRollup.CATEGORY;
+                    System.out.print("Enter the product category (e.g., pizza, salad, burger): ");
+                    key = sc.nextLine().trim();
+                } else if (num.equals("3")) {
+                    by = SalesRollup.PRODUCT;
+                    System.out.print("Enter the product name: ");
+                    key = sc.nextLine().trim();
+                }
+
+                System.out.print("Enter the time window (e.g., 30m, 6h, 7d): ");
+                String window = sc.nextLine().trim();
+                try {
+                    SalesRollup.parseWindow(window);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage() + "\n");
+                    continue;
+                }
+
+                // Connect to master, closed whatever happens
+                try (Socket requestSocket = new Socket("localhost", 4321);
+                     ObjectOutputStream out = new ObjectOutputStream(requestSocket.getOutputStream());
+                     ObjectInputStream in = new ObjectInputStream(requestSocket.getInputStream())) {
+
+                    // Send to master
+                    out.writeObject("salesWindow");
+                    out.flush();
+
+                    out.writeObject(storeType);
+                    out.writeObject(by);
+                    out.writeObject(key);
+                    out.writeObject(window);
+                    out.flush();
+
+                    // Receive from master
+                    Map<String, Integer> units = (Map<String, Integer>) in.readObject();
+                    Map<String, Double> revenue = (Map<String, Double>) in.readObject();
+
+                    int totalUnits = 0;
+                    double totalRevenue = 0;
+                    System.out.println("Sales by Store over the last " + window + (key.isEmpty() ? "" : " for " + key) + ":");
+                    for (Map.Entry<String, Integer> entry : units.entrySet()) { // Print for every store
+                        double storeRevenue = revenue.getOrDefault(entry.getKey(), 0.0);
+                        System.out.println("• " + entry.getKey() + ": " + entry.getValue() + " sold, " + String.format("%.2f", storeRevenue) + " €");
+                        totalUnits += entry.getValue();
+                        totalRevenue += storeRevenue;
+                    }
+                    System.out.println("Total Sales: " + totalUnits + ", " + String.format("%.2f", totalRevenue) + " €\n");
+
+                } catch (UnknownHostException unknownHost) {
+                    System.err.println("You are trying to connect to an unknown host!");
+                } catch (IOException | ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+
+
+            } else if (number.equals("9")) {
                 System.out.println("Exit");
                 flag = false;
             } else {
@@ -591,4 +735,31 @@ public class Manager {
         }
 
     }
+
+    // Asks the master to import every *.json catalogue of a directory and prints its report
+    private static void importCatalogue(String dir) {
+        try (Socket requestSocket = new Socket("localhost", 4321)) {
+            ObjectOutputStream out = new ObjectOutputStream(requestSocket.getOutputStream());
+            ObjectInputStream in = new ObjectInputStream(requestSocket.getInputStream());
+
+            // Send to master
+            out.writeObject("importCatalogue");
+            out.flush();
+
+            out.writeObject(dir);
+            out.flush();
+
+            // Receive from master
+            String res = (String) in.readObject();
+            System.out.println(res);
+            System.out.print("\n");
+
+        } catch (UnknownHostException unknownHost) {
+            System.err.println("You are trying to connect to an unknown host!");
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
 }
\ No newline at end of file
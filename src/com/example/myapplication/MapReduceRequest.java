@@ -13,6 +13,9 @@ public class MapReduceRequest implements Serializable {
     private String priceCategory;
     private double radius;
     private  String requestId;
+    private int limit; // most stores to return, 0 for all
+    private String sortBy = ""; // see StoreRanking, "" for no order
+    private String cursor; // from the previous page, see PageCursor, null for the first page
 
 
     public MapReduceRequest(double clientLatitude, double clientLongitude, ArrayList<String> foodCategories, double minStars, String priceCategory, double radius,  String requestId) {
@@ -82,6 +85,30 @@ public class MapReduceRequest implements Serializable {
         this.requestId = requestId;
     }
 
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public String getSortBy() {
+        return sortBy;
+    }
+
+    public void setSortBy(String sortBy) {
+        this.sortBy = sortBy;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
 
     @Override
     public String toString() {
@@ -93,6 +120,9 @@ public class MapReduceRequest implements Serializable {
                 ", priceCategory='" + priceCategory + '\'' +
                 ", radius=" + radius +
                 ", requestId='" + requestId + '\'' +
+                ", limit=" + limit +
+                ", sortBy='" + sortBy + '\'' +
+                ", cursor='" + cursor + '\'' +
                 '}';
     }
 }
@@ -2,6 +2,9 @@ package com.example.myapplication;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 public class Master {
@@ -11,24 +14,68 @@ public class Master {
         // Create array to store IP and port pairs of workers
         String[][] workers = new String [args.length/2][2];
 
-        // HashMap to store output streams to worker connections
-        HashMap<Integer, ObjectOutputStream> connectionsOut = new HashMap<>();
-
         // Populate the workers array from command-line arguments
         for (int i = 0; i < args.length/2; i++) {
             workers[i][0] = args[i*2]; // IP
             workers[i][1] = args[i*2 + 1]; // Port
         }
 
-        // Start the Master server with worker info and output connections map
-        new Master().openServer(workers, connectionsOut);
+        // Long-lived connections to the workers, shared by all Actions threads
+        WorkerPool pool = new WorkerPool(workers);
+
+        // Replicas of the workers, as -Dfoodapp.replicas=workerId@IP:port,... e.g. 0@127.0.0.1:6001
+        String replicaList = System.getProperty("foodapp.replicas", "");
+        for (String replica : replicaList.split(",")) {
+            if (replica.isBlank()) continue;
+            addReplica(pool, replica.trim());
+        }
+        if (!replicaList.isBlank()) {
+            // Attaches the replicas, decides which ones get reads and promotes one if its worker fails
+            ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+            heartbeat.scheduleWithFixedDelay(new ReplicaMonitor(pool), 0, ReplicaMonitor.HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        // Decides which worker owns each store
+        StoreRouter router = new StoreRouter(workers.length);
+
+        // Moves stores between workers when workers are added or removed
+        Rebalancer rebalancer = new Rebalancer(pool, router);
+
+        // Start the Master server with the worker connection pool and the router
+        new Master().openServer(pool, router, rebalancer);
+    }
+
+    // Adds one entry of foodapp.replicas, workerId@IP:port. A bad entry stops the Master with a
+    // message naming it rather than starting without the replica.
+    private static void addReplica(WorkerPool pool, String entry) {
+        int at = entry.indexOf('@');
+        int colon = entry.lastIndexOf(':');
+        if (at <= 0 || colon < at + 2 || colon == entry.length() - 1) {
+            throw new IllegalArgumentException("Bad entry \"" + entry + "\" in foodapp.replicas, expected workerId@IP:port such as 0@127.0.0.1:6001");
+        }
+        int workerId;
+        int port;
+        try {
+            workerId = Integer.parseInt(entry.substring(0, at).trim());
+            port = Integer.parseInt(entry.substring(colon + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad entry \"" + entry + "\" in foodapp.replicas, the worker id and the port must be numbers", e);
+        }
+        if (!pool.isActive(workerId)) {
+            throw new IllegalArgumentException("Bad entry \"" + entry + "\" in foodapp.replicas, there is no worker " + workerId
+                    + " (workers are numbered from 0 in the order they are given)");
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Bad entry \"" + entry + "\" in foodapp.replicas, port " + port + " is out of range");
+        }
+        pool.addReplica(workerId, entry.substring(at + 1, colon).trim(), port);
     }
 
     ServerSocket providerSocket;
     Socket connection = null;
     int counterID = 0; // Counter of incoming connections
 
-    void openServer(String [][] workers, HashMap<Integer, ObjectOutputStream> connectionsOut) {
+    void openServer(WorkerPool pool, StoreRouter router, Rebalancer rebalancer) {
         try {
             // Create a server socket listening on port 4321, with a backlog of 10
             providerSocket = new ServerSocket(4321, 10);
@@ -39,7 +86,7 @@ public class Master {
                 counterID++;
 
                 // Create a new thread to handle this connection
-                Thread t = new Actions(connection, workers, counterID);
+                Thread t = new Actions(connection, pool, router, rebalancer, counterID);
                 t.start();
 
             }
@@ -51,6 +98,7 @@ public class Master {
             } catch (IOException ioException) {
                 ioException.printStackTrace();
             }
+            pool.close();
         }
     }
 }
@@ -0,0 +1,105 @@
+package com.example.myapplication;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Carries WorkerRequest and WorkerResponse messages over one socket, between the Master,
+// the Workers and the Reducer. Two formats:
+//  - binary (default): a preamble, then length-prefixed frames encoded by WireCodec
+//  - java: every message is an object on an ObjectOutputStream, like before the binary frames
+// The side that connects picks the format with -Dfoodapp.wire=binary|java. The side that
+// accepts recognizes it from the first bytes, so nodes with different settings still talk.
+public class MessageStream {
+    public static final boolean JAVA_SERIALIZATION = "java".equalsIgnoreCase(System.getProperty("foodapp.wire", "binary"));
+
+    private static final byte[] PREAMBLE = "FAW1".getBytes(StandardCharsets.US_ASCII); // food app wire, version 1
+
+    private final Socket socket;
+    private final boolean binary;
+    private final DataOutputStream dataOut;
+    private final DataInputStream dataIn;
+    private final ObjectOutputStream objectOut;
+    private final ObjectInputStream objectIn;
+
+    private MessageStream(Socket socket, boolean binary, InputStream in, OutputStream out) throws IOException {
+        this.socket = socket;
+        this.binary = binary;
+        if (binary) {
+            dataOut = new DataOutputStream(out);
+            dataIn = new DataInputStream(in);
+            objectOut = null;
+            objectIn = null;
+        } else {
+            objectOut = new ObjectOutputStream(out);
+            objectOut.flush();
+            objectIn = new ObjectInputStream(in);
+            dataOut = null;
+            dataIn = null;
+        }
+    }
+
+    // Opens the stream on a socket this node connected, in the configured format
+    public static MessageStream connect(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true); // small request/reply messages, do not wait for Nagle
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        if (!JAVA_SERIALIZATION) {
+            out.write(PREAMBLE);
+            out.flush();
+        }
+        return new MessageStream(socket, !JAVA_SERIALIZATION, in, out);
+    }
+
+    // Opens the stream on an accepted socket, in the format the other side chose
+    public static MessageStream accept(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        BufferedInputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+
+        in.mark(PREAMBLE.length);
+        byte[] first = new byte[PREAMBLE.length];
+        new DataInputStream(in).readFully(first);
+        boolean binary = Arrays.equals(first, PREAMBLE);
+        if (!binary) {
+            in.reset(); // an object stream header, let ObjectInputStream read it
+        }
+        return new MessageStream(socket, binary, in, out);
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // Writes and flushes one WorkerRequest or WorkerResponse. Safe to call from many threads.
+    public synchronized void writeMessage(Object message) throws IOException {
+        if (binary) {
+            dataOut.write(WireCodec.encodeFrame(message));
+            dataOut.flush();
+        } else {
+            objectOut.writeObject(message);
+            objectOut.flush();
+            objectOut.reset(); // do not keep back-references to objects that may change later
+        }
+    }
+
+    // Blocks until the next message arrives. Only one thread may read.
+    public Object readMessage() throws IOException {
+        if (binary) {
+            return WireCodec.readFrame(dataIn);
+        }
+        try {
+            return objectIn.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.myapplication;
+import java.util.HashMap;
+import java.util.Map;
+
+// One byte code for every role that travels between the Master, the Workers and the Reducer,
+// so a binary frame does not repeat the role name. Roles missing from this list are still
+// sent, as CUSTOM followed by the role name.
+public enum Opcode {
+    CUSTOM(0, null),
+
+    // Master -> Worker
+    MANAGER(1, "manager"),
+    FIND_STORE(2, "findStore"),
+    FIND_PRODUCT(3, "findProduct"),
+    FIND_PRODUCT2(4, "findProduct2"),
+    AMOUNT_INC(5, "AmountInc"),
+    NEW_PRODUCT(6, "NewProduct"),
+    REMOVE(7, "remove"),
+    AMOUNT_DEC(8, "AmountDec"),
+    STORE_TYPE(9, "storeType"),
+    PRODUCT_CATEGORY(10, "productCategory"),
+    CLIENT(11, "client"),
+    FILTER(12, "filter"),
+    FETCH_PRODUCTS(13, "fetchProducts"),
+    PURCHASE(14, "purchase"),
+    RATE(15, "rate"),
+    CUSTOMER_PURCHASES_BY_STORE(16, "customerPurchasesByStore"),
+    SALES_WINDOW(22, "salesWindow"),
+
+    // Rebalancing, Master -> Worker and Worker -> Worker
+    LIST_STORES(17, "listStores"),
+    MIGRATE_STORES(18, "migrateStores"),
+    IMPORT_STORE(19, "importStore"),
+    DROP_STORES(20, "dropStores"),
+
+    // Worker -> Reducer
+    PARTIAL_STORES(21, "partialStores"),
+
+    // Replication, Master -> Worker and primary Worker -> replica Worker
+    PING(23, "ping"),
+    ATTACH_REPLICA(24, "attachReplica"),
+    REPLICATE(25, "replicate"),
+    CLEAR_STORES(26, "clearStores"),
+
+    // Master -> Worker, a batch of new stores
+    ADD_STORES(27, "addStores");
+
+    private static final Map<String, Opcode> BY_ROLE = new HashMap<>();
+    private static final Opcode[] BY_CODE = new Opcode[256];
+
+    static {
+        for (Opcode opcode : values()) {
+            if (opcode.role != null) {
+                BY_ROLE.put(opcode.role, opcode);
+            }
+            BY_CODE[opcode.code & 0xff] = opcode;
+        }
+    }
+
+    private final byte code;
+    private final String role;
+
+    Opcode(int code, String role) {
+        this.code = (byte) code;
+        this.role = role;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    // The opcode of a role, CUSTOM if it has none
+    public static Opcode forRole(String role) {
+        Opcode opcode = BY_ROLE.get(role);
+        return opcode == null ? CUSTOM : opcode;
+    }
+
+    // The opcode with this code, null if there is none
+    public static Opcode forCode(byte code) {
+        return BY_CODE[code & 0xff];
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.myapplication;
+import java.io.*;
+import java.util.Base64;
+import java.util.Objects;
+
+// Continuation tokens for paged results. The client gets one with every page that has more
+// after it and sends it back unchanged to get the next page. Nothing is kept on the Master,
+// the Reducer or the Workers between pages.
+//  - Searches: the position of the last store of the page in the order of the search. Every
+//    worker sorts by the same order with the store name as tie-break, so each one can skip
+//    what it already sent from that position alone, and the token does not change when
+//    workers join or leave.
+//  - Products: the index in the store's product list to go on from. Products are only ever
+//    appended or hidden, so indexes stay valid between pages and after a migration.
+public class PageCursor {
+    private static final byte SEARCH = 1;
+    private static final byte PRODUCTS = 2;
+
+    private PageCursor() {
+    }
+
+    // The cursor of the page that follows last, the final store of a search page
+    public static String afterStore(StoreSummary last, MapReduceRequest request) {
+        return encode(out -> {
+            out.writeByte(SEARCH);
+            out.writeInt(fingerprint(request));
+            out.writeDouble(last.getDistanceKm());
+            out.writeDouble(last.getStars());
+            out.writeInt(last.getNoOfReviews());
+            out.writeUTF(last.getStoreName());
+        });
+    }
+
+    // The last store of the previous page, or null for the first page. A cursor of a
+    // search with other criteria or another order is ignored and the search starts over.
+    public static StoreSummary position(MapReduceRequest request) {
+        String cursor = request.getCursor();
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            DataInputStream in = decode(cursor);
+            if (in.readByte() != SEARCH || in.readInt() != fingerprint(request)) {
+                return null;
+            }
+            double distanceKm = in.readDouble();
+            double stars = in.readDouble();
+            int noOfReviews = in.readInt();
+            String storeName = in.readUTF();
+            return new StoreSummary(storeName, 0, 0, "", stars, noOfReviews, "", "", distanceKm);
+        } catch (IOException | IllegalArgumentException e) {
+            return null; // not a cursor we wrote
+        }
+    }
+
+    public static String atProduct(String storeName, int index) {
+        return encode(out -> {
+            out.writeByte(PRODUCTS);
+            out.writeUTF(StoreIndex.key(storeName));
+            out.writeInt(index);
+        });
+    }
+
+    // Index of the first product of the page, 0 without a cursor or with one of another store
+    public static int productIndex(String cursor, String storeName) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            DataInputStream in = decode(cursor);
+            if (in.readByte() != PRODUCTS || !in.readUTF().equals(StoreIndex.key(storeName))) {
+                return 0;
+            }
+            return Math.max(0, in.readInt());
+        } catch (IOException | IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    // The criteria and the order of a search, so a cursor is only used for the search it came from
+    private static int fingerprint(MapReduceRequest request) {
+        return Objects.hash(request.getClientLatitude(), request.getClientLongitude(), request.getRadius(),
+                request.getFoodCategories(), request.getMinStars(), request.getPriceCategory(), request.getSortBy());
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static String encode(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen in memory
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    private static DataInputStream decode(String cursor) {
+        return new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)));
+    }
+}
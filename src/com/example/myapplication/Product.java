@@ -1,11 +1,12 @@
 package com.example.myapplication;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Product implements Serializable {
     private String name;
     private String category;
     private double price;
-    private int quantity;
+    private final AtomicInteger quantity; // stock, -1 once the product is removed
     private String status; // e.g. "visible", "hidden"
 
 
@@ -13,7 +14,7 @@ public class Product implements Serializable {
         this.name = name;
         this.category = category;
         this.price = price;
-        this.quantity = quantity;
+        this.quantity = new AtomicInteger(quantity);
         this.status = "visible";
     }
 
@@ -43,11 +44,46 @@ public class Product implements Serializable {
     }
 
     public int getQuantity() {
-        return quantity;
+        return quantity.get();
     }
 
     public void setQuantity(int quantity) {
-        this.quantity = quantity;
+        this.quantity.set(quantity);
+    }
+
+    // Adds stock and returns the new quantity
+    public int addQuantity(int amount) {
+        return quantity.addAndGet(amount);
+    }
+
+    // Takes the amount from the stock if there is enough of it, without locking.
+    // Fails on a removed product, so the stock can never go below zero.
+    public boolean tryReserve(int amount) {
+        if (amount < 0) {
+            return false; // a negative amount would add stock
+        }
+        while (true) {
+            int current = quantity.get();
+            if (current < 0 || current < amount) {
+                return false;
+            }
+            if (quantity.compareAndSet(current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    // Gives back an amount taken by tryReserve, unless the product was removed meanwhile
+    public void release(int amount) {
+        while (true) {
+            int current = quantity.get();
+            if (current < 0) {
+                return;
+            }
+            if (quantity.compareAndSet(current, current + amount)) {
+                return;
+            }
+        }
     }
 
     public String getStatus() {
@@ -64,6 +100,6 @@ public class Product implements Serializable {
         return "Product Name: " + name +
                 "\nCategory: " + category +
                 "\nPrice: " + price +
-                " €\nQuantity: " + quantity;
+                " €\nQuantity: " + quantity.get();
     }
 }
@@ -7,6 +7,7 @@ public class Purchase implements Serializable {
     private String customerEmail;
     private ArrayList<Product> purchasedProducts;
     private double totalPrice;
+    private long purchasedAt; // when the worker recorded it, in ms since the epoch, 0 until then
 
     public Purchase(String customerName, String customerEmail, ArrayList<Product> purchasedProducts) {
         this.customerName = customerName;
@@ -44,6 +45,18 @@ public class Purchase implements Serializable {
         return totalPrice;
     }
 
+    public void setTotalPrice(double totalPrice) {
+        this.totalPrice = totalPrice;
+    }
+
+    public long getPurchasedAt() {
+        return purchasedAt;
+    }
+
+    public void setPurchasedAt(long purchasedAt) {
+        this.purchasedAt = purchasedAt;
+    }
+
     // Calculate total price of the purchase
     private double calculateTotalPrice() {
         double total = 0.0;
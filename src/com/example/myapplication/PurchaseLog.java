@@ -0,0 +1,268 @@
+package com.example.myapplication;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// The purchase history of one store, append only, in columns of primitives instead of one
+// Purchase and one Product per item. Customer names, emails, product names and categories
+// are stored once in a dictionary and referred to by number. A store with a million items
+// sold holds a dozen arrays, not millions of small objects for the collector to trace.
+// Purchase objects are only built when the history is read back, one at a time.
+// Not thread safe: writers hold the store's write lock, readers its read lock.
+public class PurchaseLog implements Iterable<Purchase>, Serializable {
+    // One row per purchase
+    private int purchaseCount;
+    private int[] customer = new int[8];
+    private int[] email = new int[8];
+    private long[] purchasedAt = new long[8];
+    private double[] totalPrice = new double[8];
+    private int[] itemsEnd = new int[8]; // the items of purchase i are itemsEnd[i - 1] up to itemsEnd[i]
+
+    // One row per item sold
+    private int itemCount;
+    private int[] product = new int[16];
+    private int[] category = new int[16];
+    private int[] quantity = new int[16];
+    private double[] price = new double[16];
+
+    private ArrayList<String> strings = new ArrayList<>();
+    private transient Map<String, Integer> ids = new HashMap<>(); // string -> its number, rebuilt after deserialization
+
+    public void add(Purchase purchase) {
+        ArrayList<Product> items = purchase.getPurchasedProducts();
+        int size = items == null ? 0 : items.size();
+        if (purchaseCount == customer.length) {
+            int capacity = Math.max(8, customer.length * 2);
+            customer = Arrays.copyOf(customer, capacity);
+            email = Arrays.copyOf(email, capacity);
+            purchasedAt = Arrays.copyOf(purchasedAt, capacity);
+            totalPrice = Arrays.copyOf(totalPrice, capacity);
+            itemsEnd = Arrays.copyOf(itemsEnd, capacity);
+        }
+        if (itemCount + size > product.length) {
+            int capacity = Math.max(product.length * 2, itemCount + size);
+            product = Arrays.copyOf(product, capacity);
+            category = Arrays.copyOf(category, capacity);
+            quantity = Arrays.copyOf(quantity, capacity);
+            price = Arrays.copyOf(price, capacity);
+        }
+
+        for (int i = 0; i < size; i++) {
+            Product item = items.get(i);
+            product[itemCount] = idOf(item.getName());
+            category[itemCount] = idOf(item.getCategory());
+            quantity[itemCount] = item.getQuantity();
+            price[itemCount] = item.getPrice();
+            itemCount++;
+        }
+        customer[purchaseCount] = idOf(purchase.getCustomerName());
+        email[purchaseCount] = idOf(purchase.getCustomerEmail());
+        purchasedAt[purchaseCount] = purchase.getPurchasedAt();
+        totalPrice[purchaseCount] = purchase.getTotalPrice();
+        itemsEnd[purchaseCount] = itemCount;
+        purchaseCount++;
+    }
+
+    public int size() {
+        return purchaseCount;
+    }
+
+    public boolean isEmpty() {
+        return purchaseCount == 0;
+    }
+
+    // Builds purchase i back as it was added
+    public Purchase get(int i) {
+        if (i < 0 || i >= purchaseCount) {
+            throw new IndexOutOfBoundsException("Purchase " + i + " of " + purchaseCount);
+        }
+        int from = i == 0 ? 0 : itemsEnd[i - 1];
+        ArrayList<Product> items = new ArrayList<>(itemsEnd[i] - from);
+        for (int item = from; item < itemsEnd[i]; item++) {
+            items.add(new Product(stringOf(product[item]), stringOf(category[item]), quantity[item], price[item]));
+        }
+        Purchase purchase = new Purchase(stringOf(customer[i]), stringOf(email[i]), items);
+        purchase.setTotalPrice(totalPrice[i]);
+        purchase.setPurchasedAt(purchasedAt[i]);
+        return purchase;
+    }
+
+    @Override
+    public Iterator<Purchase> iterator() {
+        return new Iterator<Purchase>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < purchaseCount;
+            }
+
+            @Override
+            public Purchase next() {
+                if (next >= purchaseCount) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    // Units bought by one customer (name ignoring case), by product name, read from the
+    // columns without building any Purchase
+    public Map<String, Integer> unitsBoughtBy(String customerName) {
+        Map<String, Integer> units = new HashMap<>();
+        boolean[] matches = new boolean[strings.size()];
+        boolean any = false;
+        for (int id = 0; id < strings.size(); id++) {
+            if (strings.get(id) != null && strings.get(id).equalsIgnoreCase(customerName)) {
+                matches[id] = true;
+                any = true;
+            }
+        }
+        if (!any) {
+            return units;
+        }
+        for (int i = 0; i < purchaseCount; i++) {
+            if (customer[i] >= 0 && matches[customer[i]]) {
+                for (int item = i == 0 ? 0 : itemsEnd[i - 1]; item < itemsEnd[i]; item++) {
+                    units.merge(stringOf(product[item]), quantity[item], Integer::sum);
+                }
+            }
+        }
+        return units;
+    }
+
+    private int idOf(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    private String stringOf(int id) {
+        return id < 0 ? null : strings.get(id);
+    }
+
+    // The binary wire format of WireCodec: the dictionary, then every column cut to its length,
+    // each as one block of bytes. No Purchase is built on either side.
+    void writeColumns(DataOutputStream out) throws IOException {
+        out.writeInt(strings.size());
+        for (String value : strings) {
+            WireCodec.writeString(out, value);
+        }
+        out.writeInt(purchaseCount);
+        out.writeInt(itemCount);
+        ByteBuffer bytes = ByteBuffer.allocate(purchaseCount * (4 + 4 + 8 + 8 + 4) + itemCount * (4 + 4 + 4 + 8));
+        bytes.asIntBuffer().put(customer, 0, purchaseCount);
+        bytes.position(bytes.position() + purchaseCount * 4);
+        bytes.asIntBuffer().put(email, 0, purchaseCount);
+        bytes.position(bytes.position() + purchaseCount * 4);
+        bytes.asLongBuffer().put(purchasedAt, 0, purchaseCount);
+        bytes.position(bytes.position() + purchaseCount * 8);
+        bytes.asDoubleBuffer().put(totalPrice, 0, purchaseCount);
+        bytes.position(bytes.position() + purchaseCount * 8);
+        bytes.asIntBuffer().put(itemsEnd, 0, purchaseCount);
+        bytes.position(bytes.position() + purchaseCount * 4);
+        bytes.asIntBuffer().put(product, 0, itemCount);
+        bytes.position(bytes.position() + itemCount * 4);
+        bytes.asIntBuffer().put(category, 0, itemCount);
+        bytes.position(bytes.position() + itemCount * 4);
+        bytes.asIntBuffer().put(quantity, 0, itemCount);
+        bytes.position(bytes.position() + itemCount * 4);
+        bytes.asDoubleBuffer().put(price, 0, itemCount);
+        out.write(bytes.array());
+    }
+
+    static PurchaseLog readColumns(DataInputStream in) throws IOException {
+        PurchaseLog log = new PurchaseLog();
+        int stringCount = in.readInt();
+        if (stringCount < 0) {
+            throw new StreamCorruptedException("Negative dictionary size " + stringCount);
+        }
+        for (int id = 0; id < stringCount; id++) {
+            String value = WireCodec.readString(in);
+            log.strings.add(value);
+            log.ids.put(value, id);
+        }
+        int purchases = in.readInt();
+        int items = in.readInt();
+        if (purchases < 0 || items < 0 || (long) purchases * 28 + (long) items * 20 > WireCodec.MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("Purchase log of " + purchases + " purchases and " + items + " items");
+        }
+        byte[] block = new byte[purchases * 28 + items * 20];
+        in.readFully(block);
+        ByteBuffer bytes = ByteBuffer.wrap(block);
+        log.customer = new int[purchases];
+        log.email = new int[purchases];
+        log.purchasedAt = new long[purchases];
+        log.totalPrice = new double[purchases];
+        log.itemsEnd = new int[purchases];
+        log.product = new int[items];
+        log.category = new int[items];
+        log.quantity = new int[items];
+        log.price = new double[items];
+        bytes.asIntBuffer().get(log.customer);
+        bytes.position(bytes.position() + purchases * 4);
+        bytes.asIntBuffer().get(log.email);
+        bytes.position(bytes.position() + purchases * 4);
+        bytes.asLongBuffer().get(log.purchasedAt);
+        bytes.position(bytes.position() + purchases * 8);
+        bytes.asDoubleBuffer().get(log.totalPrice);
+        bytes.position(bytes.position() + purchases * 8);
+        bytes.asIntBuffer().get(log.itemsEnd);
+        bytes.position(bytes.position() + purchases * 4);
+        bytes.asIntBuffer().get(log.product);
+        bytes.position(bytes.position() + items * 4);
+        bytes.asIntBuffer().get(log.category);
+        bytes.position(bytes.position() + items * 4);
+        bytes.asIntBuffer().get(log.quantity);
+        bytes.position(bytes.position() + items * 4);
+        bytes.asDoubleBuffer().get(log.price);
+        log.purchaseCount = purchases;
+        log.itemCount = items;
+        return log;
+    }
+
+    // Writes the columns cut to their length, not the spare capacity
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("purchaseCount", purchaseCount);
+        fields.put("customer", Arrays.copyOf(customer, purchaseCount));
+        fields.put("email", Arrays.copyOf(email, purchaseCount));
+        fields.put("purchasedAt", Arrays.copyOf(purchasedAt, purchaseCount));
+        fields.put("totalPrice", Arrays.copyOf(totalPrice, purchaseCount));
+        fields.put("itemsEnd", Arrays.copyOf(itemsEnd, purchaseCount));
+        fields.put("itemCount", itemCount);
+        fields.put("product", Arrays.copyOf(product, itemCount));
+        fields.put("category", Arrays.copyOf(category, itemCount));
+        fields.put("quantity", Arrays.copyOf(quantity, itemCount));
+        fields.put("price", Arrays.copyOf(price, itemCount));
+        fields.put("strings", strings);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ids = new HashMap<>();
+        for (int id = 0; id < strings.size(); id++) {
+            ids.put(strings.get(id), id);
+        }
+    }
+}
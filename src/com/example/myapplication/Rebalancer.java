@@ -0,0 +1,141 @@
+package com.example.myapplication;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Moves stores between workers when the consistent-hash ring changes, while the
+// system keeps serving requests.
+// Only the stores whose owner differs between the current ring and the new one are moved.
+// The new ring is installed first, with every store that still has to move pinned to its
+// old worker; writes wait while the old owners are listed and the ring switches, so no
+// request reaches a new owner for a store that is not pinned yet. Stores are then migrated
+// in small batches of the same fence stripes: writes to the batch are blocked, the old
+// worker streams the stores straight to the new one, the pins are dropped so the routing
+// switches, and the old copies are deleted. Reads keep going to the old worker until
+// the switch.
+public class Rebalancer {
+    // Stores moved under one write block, override with -Dfoodapp.migrationBatch=N
+    public static final int MIGRATION_BATCH = Integer.getInteger("foodapp.migrationBatch", 32);
+
+    private final WorkerPool pool;
+    private final StoreRouter router;
+
+    public Rebalancer(WorkerPool pool, StoreRouter router) {
+        this.pool = pool;
+        this.router = router;
+    }
+
+    // Adds a worker to the ring and moves to it the stores it now owns
+    public synchronized String addWorker(String workerIP, int workerPort) throws IOException {
+        int workerId = pool.addWorker(workerIP, workerPort);
+        int moved = rebalance(router.getRing().withNode(workerId));
+        return "Worker " + workerId + " (" + workerIP + ":" + workerPort + ") added, " + moved + " store(s) moved";
+    }
+
+    // Moves every store away from a worker and then drops it from the pool
+    public synchronized String removeWorker(int workerId) throws IOException {
+        ConsistentHashRing ring = router.getRing();
+        if (!ring.getNodes().contains(workerId)) {
+            return "Worker " + workerId + " is not in the ring";
+        }
+        if (ring.getNodes().size() == 1) {
+            return "Worker " + workerId + " is the last worker and cannot be removed";
+        }
+        int moved = rebalance(ring.withoutNode(workerId));
+
+        // Keep the connections while any store is still pinned to the worker
+        ArrayList<String> left = (ArrayList<String>) pool.call(workerId, "listStores")[0];
+        if (!left.isEmpty()) {
+            return "Worker " + workerId + " left the ring but still holds " + left.size() + " store(s), " + moved + " store(s) moved";
+        }
+        pool.removeWorker(workerId);
+        return "Worker " + workerId + " removed, " + moved + " store(s) moved";
+    }
+
+    private int rebalance(ConsistentHashRing newRing) throws IOException {
+        Set<Integer> sources = router.getRing().getNodes();
+
+        // Pin the stores that have to move to where they are now, then install the new ring.
+        // Writes wait meanwhile, so every store an old owner holds is listed and pinned before
+        // any request is routed by the new ring. Stores added from then on go straight to
+        // their new owner.
+        Map<Integer, Map<Integer, List<String>>> moves;
+        List<ReentrantReadWriteLock> blocked = router.blockAllWrites();
+        try {
+            moves = findMoves(sources, newRing);
+            router.setRing(newRing);
+        } finally {
+            router.allowWrites(blocked);
+        }
+
+        int moved = 0;
+        for (Map.Entry<Integer, Map<Integer, List<String>>> entry : moves.entrySet()) {
+            int source = entry.getKey();
+            for (Map.Entry<Integer, List<String>> target : entry.getValue().entrySet()) {
+                // Stores of the same stripes in one batch, so a batch blocks few stripes
+                List<String> names = target.getValue();
+                names.sort(Comparator.comparingInt(router::stripe));
+                for (int from = 0; from < names.size(); from += MIGRATION_BATCH) {
+                    List<String> batch = names.subList(from, Math.min(names.size(), from + MIGRATION_BATCH));
+                    moved += migrate(source, target.getKey(), batch);
+                }
+            }
+        }
+        return moved;
+    }
+
+    // Asks every old owner for its stores and pins the ones that change owner.
+    // Returns source worker -> target worker -> store names.
+    private Map<Integer, Map<Integer, List<String>>> findMoves(Set<Integer> sources, ConsistentHashRing newRing) throws IOException {
+        Map<Integer, Map<Integer, List<String>>> moves = new TreeMap<>();
+
+        for (int workerId : sources) {
+            // Receive from worker the names of the stores it holds
+            ArrayList<String> names = (ArrayList<String>) pool.call(workerId, "listStores")[0];
+
+            for (String name : names) {
+                int target = newRing.nodeFor(StoreRouter.key(name));
+                if (target == workerId) {
+                    continue; // the store keeps its owner
+                }
+                router.pin(name, workerId);
+                moves.computeIfAbsent(workerId, k -> new TreeMap<>())
+                        .computeIfAbsent(target, k -> new ArrayList<>())
+                        .add(name);
+            }
+        }
+        return moves;
+    }
+
+    // Streams one batch of stores from the source worker to the target worker and switches their routing
+    private int migrate(int source, int target, List<String> batch) throws IOException {
+        String[] targetWorker = pool.getWorkers()[target];
+        ArrayList<String> moved;
+
+        List<ReentrantReadWriteLock> blocked = router.blockWrites(batch);
+        try {
+            // The source sends the full state of each store straight to the target
+            Object[] reply = pool.call(source, "migrateStores", new ArrayList<>(batch), targetWorker[0], Integer.parseInt(targetWorker[1]));
+            moved = (ArrayList<String>) reply[0];
+
+            // Switch the routing of the copied stores
+            for (String name : moved) {
+                router.unpin(name);
+            }
+        } finally {
+            router.allowWrites(blocked);
+        }
+
+        if (moved.size() < batch.size()) {
+            System.out.println("[Master] Only " + moved.size() + " of " + batch.size() + " stores moved from worker " + source + " to worker " + target + ", the rest stay pinned to worker " + source);
+        }
+
+        // Delete the old copies now that nobody is routed to them
+        pool.call(source, "dropStores", moved);
+
+        for (String name : moved) {
+            System.out.println("[Master] Moved store " + name + " from worker " + source + " to worker " + target);
+        }
+        return moved.size();
+    }
+}
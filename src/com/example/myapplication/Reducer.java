@@ -1,29 +1,39 @@
 package com.example.myapplication;
 import java.io.*;
 import java.net.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 
 public class Reducer {
     public static void main(String[] args) throws UnknownHostException {
 
+        // Searches whose partials are being merged, by the id the Master gave them
+        Map<Long, StoreReduction> reductions = new ConcurrentHashMap<>();
+
+        // Fires the deadlines of the searches
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
         // Start the Reducer server with shared data structures and locks
-        new Reducer().openServer();
+        new Reducer().openServer(reductions, timer);
     }
 
     ServerSocket providerSocket;
     Socket connection = null;
 
-    void openServer() {
+    void openServer(Map<Long, StoreReduction> reductions, ScheduledExecutorService timer) {
         try {
             // Reducer listens on port 4325, with a backlog of 10
             providerSocket = new ServerSocket(4325, 10);
 
             while (true) {
-                // Accept incoming connection from Master
+                // Accept incoming connection from the Master or a Worker
                 connection = providerSocket.accept();
 
                 // Handle the connection in a new thread using ReducerActions
-                Thread t = new ReducerActions(connection);
+                Thread t = new ReducerActions(connection, reductions, timer);
                 t.start();
 
             }
@@ -35,6 +45,7 @@ public class Reducer {
             } catch (IOException ioException) {
                 ioException.printStackTrace();
             }
+            timer.shutdown();
         }
     }
 }
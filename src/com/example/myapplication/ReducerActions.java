@@ -2,21 +2,24 @@ package com.example.myapplication;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ReducerActions extends Thread {
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
-    private Socket connection;
-
-
-
+    // How long partials of a search the Master never registers are kept, override with -Dfoodapp.orphanPartialMs=N
+    public static final long ORPHAN_PARTIAL_MS = Long.getLong("foodapp.orphanPartialMs", 60000);
 
+    private MessageStream stream;
+    private Socket connection;
+    private final Map<Long, StoreReduction> reductions; // shared by all connections
+    private final ScheduledExecutorService timer;
 
-    public ReducerActions(Socket connection) {
+    public ReducerActions(Socket connection, Map<Long, StoreReduction> reductions, ScheduledExecutorService timer) {
+        this.reductions = reductions;
+        this.timer = timer;
         try {
             this.connection = connection;
-            out = new ObjectOutputStream(connection.getOutputStream());
-            in = new ObjectInputStream(connection.getInputStream());
+            stream = MessageStream.accept(connection); // binary frames or Java serialization, as the Master chose
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -25,91 +28,137 @@ public class ReducerActions extends Thread {
     @Override
     public void run() {
         try {
-            String role = (String) in.readObject();
-
-            if (role.equals("client") || role.equals("filter")) {
-                // Receive from master
-                String overallClientId = (String) in.readObject();
-                int totalBatches = (int) in.readObject(); // This will be 1 from the modified Master
+            // Workers keep this connection open to stream partials, the Master closes it after its reply
+            while (true) {
+                // Receive from master or worker
+                WorkerRequest request = (WorkerRequest) stream.readMessage();
+                String role = request.getRole();
+                Object[] args = request.getArgs();
+
+                if (role.equals("partialStores")) {
+                    // The stores one worker found for a search, merged right away
+                    StoreReduction reduction = reductionFor(request.getRequestId());
+                    StoreRanking ranking = args.length > 2 ? StoreRanking.of((MapReduceRequest) args[2]) : null;
+                    if (reduction.add((ArrayList<StoreSummary>) args[1], ranking)) {
+                        complete(reduction);
+                    }
 
-                ArrayList<Store> merged = new ArrayList<>();
-                Set<String> addedNames = new HashSet<>();
+                } else if ((role.equals("client") || role.equals("filter")) && args.length == 3) {
+                    // The Master registers the search: how many workers answered it and how long to wait for them
+                    StoreReduction reduction = reductionFor(request.getRequestId());
+                    boolean ready = reduction.register((String) args[0], (Integer) args[1], stream);
+                    if (ready) {
+                        complete(reduction);
+                    } else {
+                        timer.schedule(() -> complete(reduction), (Long) args[2], TimeUnit.MILLISECONDS);
+                    }
 
-                for (int i = 0; i < totalBatches; i++) { // Loop will run once
-                    // Receive from master
-                    String requestIdFromMaster = (String) in.readObject(); // This is the clientId sent by Master for the batch
-                    ArrayList<Store> storesInBatch = (ArrayList<Store>) in.readObject(); // This is the allStoresFromWorkers list
+                } else {
+                    Object[] values = handle(role, args);
 
-                    if (!(overallClientId.equals(requestIdFromMaster))) {
-                        System.out.println("[Reducer] Mismatch: overallClientId (" + overallClientId + ") != requestIdFromMaster (" + requestIdFromMaster + "). Skipping batch.");
-                        continue;
-                    }
-                    for (Store store : storesInBatch) { // merge all the stores from the batch
-                        if (!addedNames.contains(store.getStoreName())) {
-                            merged.add(store);
-                            addedNames.add(store.getStoreName());
-                        }
-                    }
+                    // Send to master
+                    stream.writeMessage(new WorkerResponse(request.getRequestId(), values));
                 }
+            }
 
-                // Send to master
-                out.writeObject(overallClientId);
-                out.flush();
-                out.writeObject(merged);
-                out.flush();
+        } catch (EOFException | SocketException e) {
+            // The other side closed the connection
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (connection != null && !connection.isClosed()) connection.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 
-            } else if (role.equals("storeType")) {
-                // Receive from master
-                int totalWorkers = (int) in.readObject();
+        }
+    }
 
-                Map<String, Integer> merged = new HashMap<>();
+    // The search with this id, created by whichever of its messages arrives first
+    private StoreReduction reductionFor(long reduceId) {
+        return reductions.computeIfAbsent(reduceId, id -> {
+            StoreReduction reduction = new StoreReduction(id);
+            // Partials of a worker the Master stopped waiting for are dropped after a while
+            timer.schedule(() -> {
+                if (!reduction.isRegistered()) reductions.remove(id, reduction);
+            }, ORPHAN_PARTIAL_MS, TimeUnit.MILLISECONDS);
+            return reduction;
+        });
+    }
 
-                for (int i = 0; i < totalWorkers; i++) { // for all workers
-                    // Receive from master
-                    Map<String, Integer> partial = (Map<String, Integer>) in.readObject();
+    // Sends the merged stores of a search to the Master and forgets the search
+    private void complete(StoreReduction reduction) {
+        reductions.remove(reduction.getReduceId(), reduction);
+        try {
+            reduction.finish();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-                    for (Map.Entry<String, Integer> entry : partial.entrySet()) { // merge all the partial results
-                        merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
-                    }
-                }
+    // Merges the partial results of the workers and returns the values to send back to the master
+    private Object[] handle(String role, Object[] args) {
+        if (role.equals("client") || role.equals("filter")) {
+            // Receive from master
+            String overallClientId = (String) args[0];
+            ArrayList<StoreSummary> storesFromWorkers = (ArrayList<StoreSummary>) args[1]; // This is the allStoresFromWorkers list
 
-                // Send to master
-                out.writeObject(merged);
-                out.flush();
+            ArrayList<StoreSummary> merged = new ArrayList<>();
+            Set<String> addedNames = new HashSet<>();
 
+            for (StoreSummary store : storesFromWorkers) { // merge all the stores from the workers
+                if (!addedNames.contains(store.getStoreName())) {
+                    merged.add(store);
+                    addedNames.add(store.getStoreName());
+                }
+            }
 
-            }else if (role.equals("productCategory")) {
-                // Receive from master
-                int totalWorkers = (int) in.readObject();
+            // Send to master
+            return new Object[]{overallClientId, merged};
 
-                Map<String, Integer> merged = new HashMap<>();
+        } else if (role.equals("storeType") || role.equals("productCategory")) {
+            // Receive from master
+            ArrayList<Map<String, Integer>> partials = (ArrayList<Map<String, Integer>>) args[0];
 
-                for (int i = 0; i < totalWorkers; i++) { // for all workers
-                    // Receive from master
-                    Map<String, Integer> partial = (Map<String, Integer>) in.readObject();
+            Map<String, Integer> merged = new HashMap<>();
 
-                    for (Map.Entry<String, Integer> entry : partial.entrySet()) { // merge all the partial results
-                        merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
-                    }
+            for (Map<String, Integer> partial : partials) { // for all workers
+                if (partial == null) continue; // a worker that sent nothing
+                for (Map.Entry<String, Integer> entry : partial.entrySet()) { // merge all the partial results
+                    merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
                 }
-
-                // Send to master
-                out.writeObject(merged);
-                out.flush();
             }
 
+            // Send to master
+            return new Object[]{merged};
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (in != null) in.close();
-                if (out != null) out.close();
-                if (connection != null && !connection.isClosed()) connection.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        } else if (role.equals("salesWindow")) {
+            // Receive from master
+            ArrayList<Map<String, Integer>> unitPartials = (ArrayList<Map<String, Integer>>) args[0];
+            ArrayList<Map<String, Double>> revenuePartials = (ArrayList<Map<String, Double>>) args[1];
+
+            Map<String, Integer> units = new HashMap<>();
+            Map<String, Double> revenue = new HashMap<>();
+
+            for (Map<String, Integer> partial : unitPartials) { // for all workers
+                if (partial == null) continue;
+                for (Map.Entry<String, Integer> entry : partial.entrySet()) {
+                    units.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                }
+            }
+            for (Map<String, Double> partial : revenuePartials) {
+                if (partial == null) continue;
+                for (Map.Entry<String, Double> entry : partial.entrySet()) {
+                    revenue.merge(entry.getKey(), entry.getValue(), Double::sum);
+                }
             }
 
+            // Send to master
+            return new Object[]{units, revenue};
         }
+
+        System.out.println("[Reducer] Unknown role: " + role);
+        return new Object[]{null};
     }
 }
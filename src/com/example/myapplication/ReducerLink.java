@@ -0,0 +1,45 @@
+package com.example.myapplication;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+// The connections of one Worker to the Reducers it streams search results to.
+// A connection is opened on first use and kept for the next searches.
+public class ReducerLink {
+    private final Map<String, MessageStream> streams = new HashMap<>(); // by "host:port", guarded by this
+
+    // Sends one message to the reducer at host:port. A broken connection is opened again once.
+    public void send(String host, int port, WorkerRequest message) throws IOException {
+        String address = host + ":" + port;
+        for (int attempt = 1; ; attempt++) {
+            MessageStream stream = open(address, host, port);
+            try {
+                // Send to reducer
+                stream.writeMessage(message);
+                return;
+            } catch (IOException e) {
+                drop(address, stream);
+                if (attempt == 2) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private synchronized MessageStream open(String address, String host, int port) throws IOException {
+        MessageStream stream = streams.get(address);
+        if (stream == null) {
+            stream = MessageStream.connect(new Socket(host, port));
+            streams.put(address, stream);
+        }
+        return stream;
+    }
+
+    private synchronized void drop(String address, MessageStream stream) {
+        if (streams.get(address) == stream) {
+            streams.remove(address);
+        }
+        stream.close();
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.myapplication;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// The replicas a worker sends its changes to, when the Master made it the primary of
+// other workers. A replica that attaches first gets a copy of every store, then every change
+// in the order the primary logged it, the same records the WriteAheadLog writes. Changes are
+// queued and sent in batches by one thread per replica, so requests never wait for a replica.
+// A replica that falls too far behind or cannot be reached is detached; the Master attaches
+// it again, with a fresh copy, on its next heartbeat.
+public class ReplicaFeed {
+    // Changes a replica may lag behind before it is detached, override with -Dfoodapp.replicaQueue=N
+    private static final int QUEUE_LIMIT = Integer.getInteger("foodapp.replicaQueue", 100_000);
+    private static final int BATCH = 256;
+    private static final int BATCH_BYTES = 1 << 20; // a batch stops growing past this, whole stores can be big
+
+    // Changes share it, attaching takes it alone so the copy and the changes after it line up
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Replica> replicas = new ConcurrentHashMap<>(); // by "host:port"
+
+    // Runs a change of the worker's stores, which may append records
+    public Object[] mutate(Supplier<Object[]> change) {
+        lock.readLock().lock();
+        try {
+            return change.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Queues one change for every replica. Called from inside mutate.
+    public void append(String role, Object... args) {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        byte[] frame;
+        try {
+            // Encoded now: the objects may change after the request returns
+            frame = WireCodec.encodeFrame(new WorkerRequest(0, role, args));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        for (Replica replica : replicas.values()) {
+            if (!replica.queue.offer(frame)) {
+                replica.detach("fell " + QUEUE_LIMIT + " changes behind");
+            }
+        }
+    }
+
+    // Starts sending to the worker at host:port a copy of every store and then every change.
+    // Returns false if it is attached already.
+    public boolean attach(String host, int port, StoreIndex stores) throws IOException {
+        String address = host + ":" + port;
+        lock.writeLock().lock();
+        try {
+            if (replicas.containsKey(address)) {
+                return false;
+            }
+            Replica replica = new Replica(address, new WorkerConnection(host, port), QUEUE_LIMIT + stores.size() + 1);
+            replica.queue.add(WireCodec.encodeFrame(new WorkerRequest(0, "clearStores", new Object[0])));
+            for (Store store : stores.values()) {
+                if (!store.isMovedAway()) {
+                    replica.queue.add(WireCodec.encodeFrame(new WorkerRequest(0, "importStore", new Object[]{store})));
+                }
+            }
+            replica.copyLeft = replica.queue.size();
+            replicas.put(address, replica);
+            replica.start();
+            System.out.println("[Worker] Replica " + address + " attached, sending " + (replica.copyLeft - 1) + " stores");
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The replicas that have their copy of the stores and get the changes, as "host:port"
+    public ArrayList<String> attached() {
+        ArrayList<String> addresses = new ArrayList<>();
+        for (Replica replica : replicas.values()) {
+            if (replica.copyLeft == 0) {
+                addresses.add(replica.address);
+            }
+        }
+        return addresses;
+    }
+
+    private class Replica extends Thread {
+        final String address;
+        final WorkerConnection connection;
+        final LinkedBlockingQueue<byte[]> queue;
+        volatile int copyLeft; // frames of the first copy the replica has not acknowledged yet
+        volatile boolean detached;
+
+        Replica(String address, WorkerConnection connection, int capacity) {
+            this.address = address;
+            this.connection = connection;
+            this.queue = new LinkedBlockingQueue<>(capacity);
+            setName("ReplicaFeed-" + address);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            ArrayList<byte[]> frames = new ArrayList<>();
+            try {
+                while (!detached) {
+                    byte[] first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    frames.clear();
+                    frames.add(first);
+                    int bytes = first.length;
+                    while (frames.size() < BATCH && bytes < BATCH_BYTES) {
+                        byte[] next = queue.poll();
+                        if (next == null) break;
+                        frames.add(next);
+                        bytes += next.length;
+                    }
+
+                    // One record per change: its role and then its arguments
+                    ArrayList<Object> records = new ArrayList<>(frames.size());
+                    for (byte[] frame : frames) {
+                        WorkerRequest change = (WorkerRequest) WireCodec.decodeFrame(frame);
+                        ArrayList<Object> record = new ArrayList<>();
+                        record.add(change.getRole());
+                        for (Object arg : change.getArgs()) {
+                            record.add(arg);
+                        }
+                        records.add(record);
+                    }
+
+                    // Send to replica, and wait so a slow replica holds back only its own queue
+                    connection.call(WorkerPool.REQUEST_TIMEOUT_MS, "replicate", records);
+                    copyLeft = Math.max(0, copyLeft - frames.size());
+                }
+            } catch (IOException e) {
+                detach(e.toString());
+            } catch (InterruptedException e) {
+                detach("interrupted");
+            }
+        }
+
+        void detach(String reason) {
+            if (detached) {
+                return;
+            }
+            detached = true;
+            replicas.remove(address, this);
+            queue.clear();
+            connection.close();
+            System.out.println("[Worker] Replica " + address + " detached: " + reason);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Runs on the Master every heartbeat. Pings every worker that has replicas and every replica.
+// A replica the worker does not stream to yet is attached to it again, which sends it a fresh
+// copy of the stores, and gets no reads until the worker reports it has the copy. A worker
+// that misses several pings in a row is replaced by one of its healthy replicas.
+public class ReplicaMonitor implements Runnable {
+    // Time between two heartbeats, override with -Dfoodapp.heartbeatMs=N
+    public static final long HEARTBEAT_MS = Long.getLong("foodapp.heartbeatMs", 1000);
+
+    // Pings a worker may miss in a row before a replica takes its place, override with -Dfoodapp.failoverAfter=N
+    public static final int FAILOVER_AFTER = Integer.getInteger("foodapp.failoverAfter", 3);
+
+    private final WorkerPool pool;
+    private final Map<Integer, Integer> missedPings = new ConcurrentHashMap<>(); // by worker id
+
+    public ReplicaMonitor(WorkerPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int workerId = 0; workerId < pool.size(); workerId++) {
+                if (pool.isActive(workerId) && !pool.getReplicas(workerId).isEmpty()) {
+                    check(workerId);
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // a failed heartbeat must not stop the next ones
+        }
+    }
+
+    private void check(int workerId) {
+        ArrayList<String> attached;
+        CompletableFuture<Object[]> ping = pool.submit(workerId, "ping");
+        try {
+            // Send to worker
+            Object[] reply = ping.get(HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+
+            // Receive from worker the replicas that have their copy
+            attached = (ArrayList<String>) reply[0];
+            missedPings.remove(workerId);
+        } catch (Exception e) {
+            ping.cancel(false); // a worker that does not answer must not keep every ping it missed
+            int missed = missedPings.merge(workerId, 1, Integer::sum);
+            if (missed >= FAILOVER_AFTER) {
+                WorkerPool.Replica promoted = pool.promote(workerId);
+                if (promoted != null) {
+                    missedPings.remove(workerId);
+                    System.out.println("[Master] Worker " + workerId + " missed " + missed + " pings, promoted replica " + promoted);
+                }
+            }
+            return;
+        }
+
+        for (WorkerPool.Replica replica : pool.getReplicas(workerId)) {
+            boolean answers;
+            CompletableFuture<Object[]> replicaPing = replica.submit("ping");
+            try {
+                // Send to replica
+                replicaPing.get(HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+                answers = true;
+            } catch (Exception e) {
+                replicaPing.cancel(false);
+                answers = false;
+            }
+
+            if (answers && !attached.contains(replica.toString())) {
+                // Send to worker, it sends the replica its stores and then its changes
+                pool.submit(workerId, "attachReplica", replica.ip, replica.port);
+            }
+            boolean healthy = answers && attached.contains(replica.toString());
+            if (healthy != replica.healthy) {
+                System.out.println("[Master] Replica " + replica + " of worker " + workerId + (healthy ? " serves reads" : " does not serve reads"));
+            }
+            replica.healthy = healthy;
+        }
+    }
+}
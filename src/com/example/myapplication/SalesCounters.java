@@ -0,0 +1,40 @@
+package com.example.myapplication;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Units sold by one store: in total, by product category and by product. Every purchase adds
+// to them when it is recorded, so the sales reports read a few counters instead of going
+// through the purchase history. Categories and products are keyed ignoring case.
+public class SalesCounters {
+    private final LongAdder units = new LongAdder();
+    private final Map<String, LongAdder> byCategory = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> byProduct = new ConcurrentHashMap<>();
+
+    public void record(Purchase purchase) {
+        for (Product product : purchase.getPurchasedProducts()) {
+            int quantity = product.getQuantity();
+            units.add(quantity);
+            if (product.getCategory() != null) {
+                byCategory.computeIfAbsent(StoreIndex.key(product.getCategory()), key -> new LongAdder()).add(quantity);
+            }
+            if (product.getName() != null) {
+                byProduct.computeIfAbsent(StoreIndex.key(product.getName()), key -> new LongAdder()).add(quantity);
+            }
+        }
+    }
+
+    public long getUnits() {
+        return units.sum();
+    }
+
+    public long getUnitsInCategory(String category) {
+        LongAdder counter = category == null ? null : byCategory.get(StoreIndex.key(category));
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public long getUnitsOfProduct(String productName) {
+        LongAdder counter = productName == null ? null : byProduct.get(StoreIndex.key(productName));
+        return counter == null ? 0 : counter.sum();
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.myapplication;
+import java.util.HashMap;
+import java.util.Map;
+
+// Units and revenue of one store in time buckets: one per minute for the last hour, one per
+// hour for the last two days and one per day for the last month, by default. Each purchase
+// adds to the bucket of its minute, hour and day. The buckets are rings, so a bucket is
+// cleared and reused once it is older than its ring, and the older sales are only kept in
+// the coarser rings. "Sales over the last N minutes/hours/days" reads N buckets of one ring,
+// however many purchases they hold.
+// Sizes: -Dfoodapp.rollupMinutes=N, -Dfoodapp.rollupHours=N, -Dfoodapp.rollupDays=N
+public class SalesRollup {
+    public static final long MINUTE_MS = 60_000L;
+    public static final long HOUR_MS = 60 * MINUTE_MS;
+    public static final long DAY_MS = 24 * HOUR_MS;
+
+    private static final int MINUTES = Integer.getInteger("foodapp.rollupMinutes", 60);
+    private static final int HOURS = Integer.getInteger("foodapp.rollupHours", 48);
+    private static final int DAYS = Integer.getInteger("foodapp.rollupDays", 30);
+
+    // What a window counts: all sales, or only one product category or one product
+    public static final String ALL = "all";
+    public static final String CATEGORY = "category";
+    public static final String PRODUCT = "product";
+
+    private final Ring minutes = new Ring(MINUTE_MS, MINUTES);
+    private final Ring hours = new Ring(HOUR_MS, HOURS);
+    private final Ring days = new Ring(DAY_MS, DAYS);
+
+    // Adds the purchase to the buckets of the time it was recorded. Purchases too old for
+    // every ring are left out.
+    public synchronized void record(Purchase purchase) {
+        long time = purchase.getPurchasedAt();
+        for (Product product : purchase.getPurchasedProducts()) {
+            long units = product.getQuantity();
+            double revenue = product.getPrice() * product.getQuantity();
+            String category = product.getCategory() == null ? null : StoreIndex.key(product.getCategory());
+            String name = product.getName() == null ? null : StoreIndex.key(product.getName());
+            minutes.add(time, category, name, units, revenue);
+            hours.add(time, category, name, units, revenue);
+            days.add(time, category, name, units, revenue);
+        }
+    }
+
+    // Units and revenue of the last "count" buckets of the window's unit up to now, the
+    // current, still open bucket included. by is ALL, CATEGORY or PRODUCT, key the category
+    // or product name (ignored for ALL).
+    public synchronized Amount total(Window window, String by, String key, long now) {
+        Ring ring = window.unitMs == MINUTE_MS ? minutes : window.unitMs == HOUR_MS ? hours : days;
+        return ring.total(window.count, by, key == null ? null : StoreIndex.key(key), now);
+    }
+
+    // Parses "30m", "6h" or "7d". Throws IllegalArgumentException for anything else or for
+    // a window longer than its ring keeps.
+    public static Window parseWindow(String text) {
+        String trimmed = text == null ? "" : text.trim().toLowerCase();
+        if (trimmed.length() < 2) {
+            throw new IllegalArgumentException("Expected a window like 30m, 6h or 7d");
+        }
+        long unitMs;
+        int max;
+        switch (trimmed.charAt(trimmed.length() - 1)) {
+            case 'm':
+                unitMs = MINUTE_MS;
+                max = MINUTES;
+                break;
+            case 'h':
+                unitMs = HOUR_MS;
+                max = HOURS;
+                break;
+            case 'd':
+                unitMs = DAY_MS;
+                max = DAYS;
+                break;
+            default:
+                throw new IllegalArgumentException("Expected a window like 30m, 6h or 7d");
+        }
+        int count;
+        try {
+            count = Integer.parseInt(trimmed.substring(0, trimmed.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a window like 30m, 6h or 7d");
+        }
+        if (count < 1 || count > max) {
+            throw new IllegalArgumentException("The window must be between 1 and " + max + trimmed.charAt(trimmed.length() - 1));
+        }
+        return new Window(unitMs, count);
+    }
+
+    public static class Window {
+        private final long unitMs;
+        private final int count;
+
+        private Window(long unitMs, int count) {
+            this.unitMs = unitMs;
+            this.count = count;
+        }
+
+        public long getUnitMs() {
+            return unitMs;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    public static class Amount {
+        private long units;
+        private double revenue;
+
+        private void add(long units, double revenue) {
+            this.units += units;
+            this.revenue += revenue;
+        }
+
+        private void add(Amount other) {
+            if (other != null) {
+                add(other.units, other.revenue);
+            }
+        }
+
+        public long getUnits() {
+            return units;
+        }
+
+        public double getRevenue() {
+            return revenue;
+        }
+    }
+
+    // The sales of one time slot
+    private static class Bucket {
+        private long slot = -1; // time / unit of the sales it holds, -1 while empty
+        private final Amount all = new Amount();
+        private final Map<String, Amount> byCategory = new HashMap<>();
+        private final Map<String, Amount> byProduct = new HashMap<>();
+
+        private void reset(long slot) {
+            this.slot = slot;
+            all.units = 0;
+            all.revenue = 0;
+            byCategory.clear();
+            byProduct.clear();
+        }
+    }
+
+    private static class Ring {
+        private final long unitMs;
+        private final Bucket[] buckets;
+
+        private Ring(long unitMs, int size) {
+            this.unitMs = unitMs;
+            this.buckets = new Bucket[Math.max(1, size)]; // a bucket is made on its first sale, most stores never fill them all
+        }
+
+        private void add(long time, String category, String product, long units, double revenue) {
+            long slot = time / unitMs;
+            Bucket bucket = buckets[(int) (slot % buckets.length)];
+            if (bucket == null) {
+                bucket = buckets[(int) (slot % buckets.length)] = new Bucket();
+            }
+            if (bucket.slot > slot) {
+                return; // older than the ring keeps
+            }
+            if (bucket.slot < slot) {
+                bucket.reset(slot); // drop what it held from a slot that left the ring
+            }
+            bucket.all.add(units, revenue);
+            if (category != null) {
+                bucket.byCategory.computeIfAbsent(category, key -> new Amount()).add(units, revenue);
+            }
+            if (product != null) {
+                bucket.byProduct.computeIfAbsent(product, key -> new Amount()).add(units, revenue);
+            }
+        }
+
+        private Amount total(int count, String by, String key, long now) {
+            Amount total = new Amount();
+            long current = now / unitMs;
+            for (long slot = current; slot > current - Math.min(count, buckets.length) && slot >= 0; slot--) {
+                Bucket bucket = buckets[(int) (slot % buckets.length)];
+                if (bucket == null || bucket.slot != slot) {
+                    continue; // nothing sold in that slot
+                }
+                if (CATEGORY.equals(by)) {
+                    total.add(bucket.byCategory.get(key));
+                } else if (PRODUCT.equals(by)) {
+                    total.add(bucket.byProduct.get(key));
+                } else {
+                    total.add(bucket.all);
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.List;
+
+// Stock taken from one store for one purchase, item by item with compare-and-set.
+// Either every item is reserved or none is: a failed item gives back the ones before it.
+// Checkouts of different products never wait for each other, and two checkouts of the
+// same product retry their compare-and-set instead of blocking.
+public class StockReservation {
+    private final ArrayList<Product> products = new ArrayList<>(); // store products, in reservation order
+    private final ArrayList<Integer> amounts = new ArrayList<>();
+    private String failure;
+    private boolean done;
+
+    private StockReservation() {
+    }
+
+    // Tries to reserve every requested product of the purchase from the store
+    public static StockReservation reserve(Store store, List<Product> requested) {
+        StockReservation reservation = new StockReservation();
+
+        for (Product req : requested) {
+            Product available = store.getProduct(req.getName());
+
+            if (available == null) {
+                reservation.fail("Product not found: " + req.getName());
+                break;
+            }
+
+            if (!available.getStatus().equalsIgnoreCase("visible")) {
+                reservation.fail("Product not available: " + req.getName());
+                break;
+            }
+
+            if (!available.tryReserve(req.getQuantity())) {
+                reservation.fail("Not enough quantity for: " + req.getName());
+                break;
+            }
+
+            reservation.products.add(available);
+            reservation.amounts.add(req.getQuantity());
+        }
+        return reservation;
+    }
+
+    public boolean isReserved() {
+        return failure == null;
+    }
+
+    // Why the reservation failed, or null if it succeeded
+    public String getFailure() {
+        return failure;
+    }
+
+    // Keeps the stock taken and fills the requested products with the store's category and price
+    public void commit(List<Product> requested) {
+        if (!isReserved() || done) {
+            throw new IllegalStateException("Reservation is not open");
+        }
+        for (int i = 0; i < requested.size(); i++) {
+            requested.get(i).setCategory(products.get(i).getCategory());
+            requested.get(i).setPrice(products.get(i).getPrice());
+        }
+        done = true;
+    }
+
+    // Gives back all the stock taken so far
+    public void rollback() {
+        if (done) {
+            throw new IllegalStateException("Reservation is already closed");
+        }
+        for (int i = products.size() - 1; i >= 0; i--) {
+            products.get(i).release(amounts.get(i));
+        }
+        products.clear();
+        amounts.clear();
+        done = true;
+    }
+
+    private void fail(String message) {
+        failure = message;
+        rollback();
+    }
+}
@@ -1,6 +1,10 @@
 package com.example.myapplication;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.*;
 
 public class Store implements Serializable {
@@ -13,7 +17,26 @@ public class Store implements Serializable {
     private int noOfReviews;
     private String storeLogoPath;
     private ArrayList<Product> products;
-    private ArrayList<Purchase> purchases;
+    private PurchaseLog purchases; // kept in columns, the counters below answer the reports
+    private transient Map<String, Product> productIndex; // product key -> product, rebuilt after deserialization
+    private transient volatile boolean movedAway; // copied to another worker, hidden from searches until it is dropped; logged as "movedAway"
+
+    // Average price of the visible products, kept up to date as products are added and removed
+    private transient double priceSum;
+    private transient int pricedProducts;
+    private transient volatile String priceCategory; // "$", "$$", "$$$", or "" while nothing is for sale
+    private transient SalesCounters sales; // totals of the purchases, rebuilt after deserialization
+    private transient SalesRollup rollup;  // the same by minute, hour and day, rebuilt after deserialization
+
+    // Requests that change the store hold the write lock, requests that read its purchases hold
+    // the read lock. Searches use the view instead, a read-only copy that is rebuilt after a change.
+    private transient ReentrantReadWriteLock lock;
+    private transient volatile Store view;
+
+    // Stock changes hold the read lock while they change the stock and log it, removing a product
+    // holds the write lock. So the write-ahead log has every stock change on the same side of a
+    // removal as it happened, and the changes between two removals add up in any order.
+    private transient ReentrantReadWriteLock stockLock;
 
     public Store(String storeName, double latitude, double longitude, String category, double stars, int noOfReviews, String storeLogoPath, ArrayList<Product> products) {
         this.storeName = storeName;
@@ -23,8 +46,53 @@ public class Store implements Serializable {
         this.stars = stars;
         this.noOfReviews = noOfReviews;
         this.products = products;
-        this.purchases = new  ArrayList<>();
+        this.purchases = new PurchaseLog();
         this.storeLogoPath = storeLogoPath;
+        this.lock = new ReentrantReadWriteLock();
+        this.stockLock = new ReentrantReadWriteLock();
+        this.sales = new SalesCounters();
+        this.rollup = new SalesRollup();
+        indexProducts();
+    }
+
+    // A view of the store as it is now, see getView. Copies the fields and the product list only:
+    // a view has no purchases, sales counters or locks, and its own view is itself.
+    private Store(Store store) {
+        this.storeName = store.storeName;
+        this.latitude = store.latitude;
+        this.longitude = store.longitude;
+        this.category = store.category;
+        this.stars = store.stars;
+        this.noOfReviews = store.noOfReviews;
+        this.storeLogoPath = store.storeLogoPath;
+        this.products = new ArrayList<>(store.products);
+        this.priceCategory = store.priceCategory;
+        this.view = this;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        lock = new ReentrantReadWriteLock();
+        stockLock = new ReentrantReadWriteLock();
+        indexProducts();
+        setPurchases(purchases == null ? new PurchaseLog() : purchases);
+    }
+
+    private void indexProducts() {
+        productIndex = new ConcurrentHashMap<>();
+        if (products == null) {
+            products = new ArrayList<>();
+        }
+        priceSum = 0;
+        pricedProducts = 0;
+        for (Product product : products) {
+            productIndex.putIfAbsent(StoreIndex.key(product.getName()), product); // the first product keeps a duplicate name
+            if (isVisible(product)) {
+                priceSum += product.getPrice();
+                pricedProducts++;
+            }
+        }
+        priceCategory = priceCategoryOf(priceSum, pricedProducts);
     }
 
 
@@ -54,10 +122,12 @@ public class Store implements Serializable {
 
     public void setStars(double stars) {
         this.stars = stars;
+        view = null;
     }
 
     public void setNoOfReviews(int noOfReviews) {
         this.noOfReviews = noOfReviews;
+        view = null;
     }
 
     public String getStoreLogoPath() {
@@ -68,21 +138,133 @@ public class Store implements Serializable {
         return products;
     }
 
-    public ArrayList<Purchase> getPurchases() {
+    // Returns the product with this name, ignoring case, or null if the store does not sell it
+    public Product getProduct(String productName) {
+        if (productName == null) {
+            return null;
+        }
+        return productIndex.get(StoreIndex.key(productName));
+    }
+
+    // Adds a new product, returns false if the store already has a product with the same name
+    public boolean addProduct(Product product) {
+        if (productIndex.putIfAbsent(StoreIndex.key(product.getName()), product) != null) {
+            return false;
+        }
+        products.add(product);
+        if (isVisible(product)) {
+            priceSum += product.getPrice();
+            pricedProducts++;
+            priceCategory = priceCategoryOf(priceSum, pricedProducts);
+        }
+        view = null;
+        return true;
+    }
+
+    // Takes a product off sale, returns false if the store does not sell it
+    public boolean hideProduct(String productName) {
+        Product product = getProduct(productName);
+        if (product == null) {
+            return false;
+        }
+        if (isVisible(product)) {
+            priceSum -= product.getPrice();
+            pricedProducts--;
+            if (pricedProducts == 0) {
+                priceSum = 0; // no rounding error left behind
+            }
+            priceCategory = priceCategoryOf(priceSum, pricedProducts);
+        }
+        product.setQuantity(-1);
+        product.setStatus("hidden");
+        view = null;
+        return true;
+    }
+
+    public PurchaseLog getPurchases() {
         return purchases;
     }
 
-    public String calculatePriceCategory() {
-        double totalPrice = 0;
-        for (Product product : products) {
-            totalPrice += product.getPrice();
+    // Replaces the history, as a copy of the store arrives, and counts its sales again
+    void setPurchases(PurchaseLog purchases) {
+        this.purchases = purchases;
+        sales = new SalesCounters();
+        rollup = new SalesRollup();
+        for (Purchase purchase : purchases) {
+            sales.record(purchase);
+            rollup.record(purchase);
         }
-        double avgPrice = totalPrice / products.size();
+    }
+
+    // Records a purchase in the history and in the sales counters. The caller holds the write lock.
+    public void addPurchase(Purchase purchase) {
+        purchases.add(purchase);
+        sales.record(purchase);
+        rollup.record(purchase);
+    }
+
+    // Units sold so far, read without the lock
+    public SalesCounters getSales() {
+        return sales;
+    }
+
+    // Units and revenue by time window, read without the store's lock
+    public SalesRollup getRollup() {
+        return rollup;
+    }
+
+    public boolean isMovedAway() {
+        return movedAway;
+    }
+
+    public void setMovedAway(boolean movedAway) {
+        this.movedAway = movedAway;
+    }
+
+    public ReentrantReadWriteLock getStockLock() {
+        return stockLock;
+    }
+
+    public ReentrantReadWriteLock getLock() {
+        return lock;
+    }
+
+    // Returns a copy of the store that is never changed, so it can be read and sent without locking.
+    // It shares the Product objects, whose stock is read live, and has only the getters of the
+    // store's own fields: no purchases, counters or locks, which searches do not need.
+    public Store getView() {
+        Store current = view;
+        if (current != null) {
+            return current;
+        }
+        lock.readLock().lock();
+        try {
+            // Built and published under the read lock, so a writer cannot clear it in between
+            current = new Store(this);
+            view = current;
+            return current;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Price tier from the average price of the products for sale, "" when there are none
+    public String getPriceCategory() {
+        return priceCategory;
+    }
+
+    private static String priceCategoryOf(double totalPrice, int count) {
+        if (count == 0) return "";
+        double avgPrice = totalPrice / count;
         if (avgPrice <= 5) return "$";
         if (avgPrice <= 15) return "$$";
         return "$$$";
     }
 
+    private static boolean isVisible(Product product) {
+        return product.getStatus() == null || product.getStatus().equalsIgnoreCase("visible");
+    }
+
     @Override
     public String toString() {
         return "Store Name: " + storeName + "\nCategory: " + category + "\nStars: " + String.format("%.2f", stars) + "\nReviews: " + noOfReviews + "\nLogo: " + storeLogoPath + "\n";
@@ -0,0 +1,222 @@
+package com.example.myapplication;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Secondary indexes over the stores of one worker for the "filter" role:
+// a bitmap of stores per category, a bitmap per price tier and a bitmap per step of 0.1 stars.
+// Every store gets a slot number, the bit it owns in the bitmaps. A query intersects the
+// bitmaps of its predicates, starting with the one that matches the fewest stores.
+// Average ratings like 4.3333 fall in the step of 4.3, so a minimum of 4.35 also returns the
+// stores of that step with 4.3 to 4.35 stars; the caller checks every predicate anyway.
+public class StoreFilterIndex {
+    private static final int CATEGORY = 0;
+    private static final int PRICE = 1;
+    private static final int STARS = 2;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final HashMap<Store, Entry> entries = new HashMap<>();
+    private final ArrayList<Store> slots = new ArrayList<>();             // slot -> store, null when free
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+
+    private final HashMap<String, BitSet> byCategory = new HashMap<>();
+    private final HashMap<String, BitSet> byPriceCategory = new HashMap<>();
+    private static final int STAR_STEPS = 50; // 0.1 stars each, from 0 to 5
+    private final BitSet[] byStars = new BitSet[STAR_STEPS + 1];
+    private final int[] starCounts = new int[STAR_STEPS + 1]; // stores in each step
+
+    // The values a store was indexed with, so that they can be unindexed when they change
+    private static class Entry {
+        final int slot;
+        String category;
+        String priceCategory;
+        double stars;
+
+        Entry(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    public void add(Store store) {
+        lock.writeLock().lock();
+        try {
+            if (entries.containsKey(store)) {
+                return;
+            }
+            int slot;
+            if (freeSlots.isEmpty()) {
+                slot = slots.size();
+                slots.add(store);
+            } else {
+                slot = freeSlots.poll();
+                slots.set(slot, store);
+            }
+            Entry entry = new Entry(slot);
+            entries.put(store, entry);
+            index(store, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Adds many stores under one lock, as a batch from the Master arrives
+    public void addAll(Collection<Store> stores) {
+        lock.writeLock().lock();
+        try {
+            for (Store store : stores) {
+                add(store); // the write lock is reentrant
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called after the stars or the price tier of a store changed
+    public void update(Store store) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.get(store);
+            if (entry == null) {
+                return;
+            }
+            unindex(entry);
+            index(store, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Store store) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.remove(store);
+            if (entry == null) {
+                return;
+            }
+            unindex(entry);
+            slots.set(entry.slot, null);
+            freeSlots.push(entry.slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns the stores that match every given predicate, or null when scanning the
+    // geoCandidates stores around the client is cheaper than any index.
+    // An empty category list, zero stars or an empty price means no predicate.
+    public ArrayList<Store> select(List<String> categories, double minStars, String price, long geoCandidates) {
+        lock.readLock().lock();
+        try {
+            // Cost of each predicate: how many stores its bitmap holds
+            ArrayList<long[]> plan = new ArrayList<>(); // {predicate, estimated stores}
+            if (categories != null && !categories.isEmpty()) {
+                long count = 0;
+                for (String category : categories) {
+                    count += cardinality(byCategory.get(category));
+                }
+                plan.add(new long[]{CATEGORY, count});
+            }
+            if (price != null && !price.isEmpty()) {
+                plan.add(new long[]{PRICE, cardinality(byPriceCategory.get(price))});
+            }
+            if (minStars != 0) {
+                long count = 0;
+                for (int step = starStep(minStars); step <= STAR_STEPS; step++) {
+                    count += starCounts[step];
+                }
+                plan.add(new long[]{STARS, count});
+            }
+            if (plan.isEmpty()) {
+                return null;
+            }
+            plan.sort(Comparator.comparingLong(step -> step[1]));
+            if (plan.get(0)[1] >= geoCandidates) {
+                return null; // the grid is at least as selective
+            }
+
+            // Most selective bitmap first, so the intersection shrinks as early as possible
+            BitSet matches = null;
+            for (long[] step : plan) {
+                BitSet bits = bits((int) step[0], categories, minStars, price);
+                if (matches == null) {
+                    matches = bits;
+                } else {
+                    matches.and(bits);
+                }
+                if (matches.isEmpty()) {
+                    break;
+                }
+            }
+
+            ArrayList<Store> result = new ArrayList<>(matches.cardinality());
+            for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+                result.add(slots.get(slot));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // A new bitmap of the stores that match one predicate
+    private BitSet bits(int predicate, List<String> categories, double minStars, String price) {
+        BitSet bits = new BitSet(slots.size());
+        if (predicate == CATEGORY) {
+            for (String category : categories) {
+                BitSet stores = byCategory.get(category);
+                if (stores != null) bits.or(stores);
+            }
+        } else if (predicate == PRICE) {
+            BitSet stores = byPriceCategory.get(price);
+            if (stores != null) bits.or(stores);
+        } else {
+            // Range scan over the steps of stars, at most 51 bitmaps
+            for (int step = starStep(minStars); step <= STAR_STEPS; step++) {
+                if (byStars[step] != null) bits.or(byStars[step]);
+            }
+        }
+        return bits;
+    }
+
+    private void index(Store store, Entry entry) {
+        entry.category = store.getCategory();
+        entry.priceCategory = store.getPriceCategory();
+        entry.stars = store.getStars();
+        byCategory.computeIfAbsent(entry.category, k -> new BitSet()).set(entry.slot);
+        byPriceCategory.computeIfAbsent(entry.priceCategory, k -> new BitSet()).set(entry.slot);
+        int step = starStep(entry.stars);
+        if (byStars[step] == null) {
+            byStars[step] = new BitSet();
+        }
+        byStars[step].set(entry.slot);
+        starCounts[step]++;
+    }
+
+    private void unindex(Entry entry) {
+        clear(byCategory, entry.category, entry.slot);
+        clear(byPriceCategory, entry.priceCategory, entry.slot);
+        int step = starStep(entry.stars);
+        byStars[step].clear(entry.slot);
+        starCounts[step]--;
+    }
+
+    // The step of a rating, the same for stores and for queries so that a store with at least
+    // minStars is never in a lower step than minStars
+    private static int starStep(double stars) {
+        if (!(stars > 0)) return 0;
+        return (int) Math.min(STAR_STEPS, Math.floor(stars * 10));
+    }
+
+    private static <K> void clear(Map<K, BitSet> index, K key, int slot) {
+        BitSet bits = index.get(key);
+        if (bits == null) return;
+        bits.clear(slot);
+        if (bits.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static long cardinality(BitSet bits) {
+        return bits == null ? 0 : bits.cardinality();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The stores held by one worker, indexed by name so that the store-specific roles
+// find their store in constant time instead of scanning every store.
+// Names are matched ignoring case and surrounding spaces, the same way the Master routes them.
+// A grid over the store locations and indexes over category, price tier and stars
+// are kept next to it for the searches.
+public class StoreIndex {
+    private final ConcurrentHashMap<String, Store> byName = new ConcurrentHashMap<>(); // store key -> store
+    private final GeoGridIndex grid = new GeoGridIndex();
+    private final StoreFilterIndex filters = new StoreFilterIndex();
+
+    // Returns the store with this name, or null if the worker does not hold it
+    public Store get(String storeName) {
+        if (storeName == null) {
+            return null;
+        }
+        return byName.get(key(storeName));
+    }
+
+    // Adds a new store, returns false if a store with the same name already exists
+    public boolean add(Store store) {
+        if (byName.putIfAbsent(key(store.getStoreName()), store) != null) {
+            return false;
+        }
+        grid.add(store);
+        filters.add(store);
+        return true;
+    }
+
+    // Adds a batch of new stores with one update of the search indexes. Returns, for each
+    // store, false if a store with the same name already existed or came earlier in the batch.
+    public boolean[] addAll(List<Store> stores) {
+        boolean[] added = new boolean[stores.size()];
+        ArrayList<Store> newStores = new ArrayList<>(stores.size());
+        for (int i = 0; i < stores.size(); i++) {
+            Store store = stores.get(i);
+            if (byName.putIfAbsent(key(store.getStoreName()), store) == null) {
+                added[i] = true;
+                newStores.add(store);
+                grid.add(store);
+            }
+        }
+        filters.addAll(newStores);
+        return added;
+    }
+
+    // Adds the store, replacing any store with the same name
+    public void put(Store store) {
+        Store previous = byName.put(key(store.getStoreName()), store);
+        if (previous != null) {
+            grid.remove(previous);
+            filters.remove(previous);
+        }
+        grid.add(store);
+        filters.add(store);
+    }
+
+    // Removes the store only if it is still the one in the index
+    public boolean remove(Store store) {
+        if (!byName.remove(key(store.getStoreName()), store)) {
+            return false;
+        }
+        grid.remove(store);
+        filters.remove(store);
+        return true;
+    }
+
+    // Re-indexes a store after its stars or its price tier changed
+    public void update(Store store) {
+        filters.update(store);
+    }
+
+    // Stores that may lie inside the box, from the grid cells it overlaps
+    public ArrayList<Store> near(double minLat, double maxLat, double minLon, double maxLon) {
+        return grid.candidates(minLat, maxLat, minLon, maxLon);
+    }
+
+    // Stores that may match a filtered search. Starts from whichever is smaller: the stores
+    // around the client, or the stores that match the category, price and stars indexes.
+    // The caller still checks every predicate on each store.
+    public ArrayList<Store> filter(GeoDistance.Circle area, List<String> categories, double minStars, String price) {
+        long around = grid.count(area.getMinLat(), area.getMaxLat(), area.getMinLon(), area.getMaxLon());
+        ArrayList<Store> selected = filters.select(categories, minStars, price, around);
+        if (selected != null) {
+            return selected;
+        }
+        if (around >= byName.size()) {
+            return new ArrayList<>(byName.values()); // the box holds every store, copying them is cheaper than visiting its cells
+        }
+        return grid.candidates(area.getMinLat(), area.getMaxLat(), area.getMinLon(), area.getMaxLon());
+    }
+
+    // Live view of all stores, for the roles that have to look at every store
+    public Collection<Store> values() {
+        return byName.values();
+    }
+
+    public int size() {
+        return byName.size();
+    }
+
+    // Normalized key of a store or product name
+    public static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
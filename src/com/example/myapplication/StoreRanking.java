@@ -0,0 +1,145 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// The order and the limit a MapReduceRequest asks for its results. Workers keep only the
+// best "limit" stores they find, sorted, and the Reducer merges those sorted lists, so a
+// search moves at most workers x limit stores however many stores match.
+// Stores that rank the same are ordered by name, so every node agrees on the order.
+public class StoreRanking {
+    public static final String DISTANCE = "distance";
+    public static final String STARS = "stars";
+    public static final String REVIEWS = "reviews";
+    public static final String SCORE = "score";
+
+    // Weights of the "score" sort: stars out of 5, closeness within the radius, and reviews
+    // on a log scale that reaches 1 at 1000 reviews. They add up to 1.
+    private static final double STARS_WEIGHT = 0.5;
+    private static final double DISTANCE_WEIGHT = 0.3;
+    private static final double REVIEWS_WEIGHT = 0.2;
+
+    private final String sortBy; // "" keeps the order the stores were found in
+    private final int limit;     // 0 for no limit
+    private final double radiusKm;
+    private final Comparator<StoreSummary> order;
+    private StoreSummary after; // the last store of the previous page, only stores after it are kept
+
+    public StoreRanking(String sortBy, int limit, double radiusKm) {
+        this.limit = Math.max(0, limit);
+        // A limit alone keeps the nearest stores
+        this.sortBy = sortBy == null || sortBy.isEmpty() ? (this.limit > 0 ? DISTANCE : "") : sortBy.toLowerCase();
+        this.radiusKm = radiusKm;
+        this.order = comparator(this.sortBy);
+    }
+
+    // The ranking of a search page. It keeps one store more than the page holds, so the
+    // Master can tell whether another page follows.
+    public static StoreRanking of(MapReduceRequest request) {
+        int limit = request.getLimit() > 0 ? request.getLimit() + 1 : 0;
+        StoreRanking ranking = new StoreRanking(request.getSortBy(), limit, request.getRadius());
+        ranking.after = PageCursor.position(request);
+        return ranking;
+    }
+
+    // False when the request asked for neither a sort nor a limit
+    public boolean isRanked() {
+        return order != null;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getSortBy() {
+        return sortBy;
+    }
+
+    private Comparator<StoreSummary> comparator(String sortBy) {
+        Comparator<StoreSummary> primary;
+        switch (sortBy) {
+            case "":
+                return null;
+            case DISTANCE:
+                primary = Comparator.comparingDouble(StoreSummary::getDistanceKm);
+                break;
+            case STARS:
+                primary = Comparator.comparingDouble(StoreSummary::getStars).reversed();
+                break;
+            case REVIEWS:
+                primary = Comparator.comparingInt(StoreSummary::getNoOfReviews).reversed();
+                break;
+            case SCORE:
+                primary = Comparator.comparingDouble(this::score).reversed();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown sort key: " + sortBy);
+        }
+        return primary.thenComparing(StoreSummary::getStoreName);
+    }
+
+    // Between 0 and 1, higher is better
+    public double score(StoreSummary store) {
+        double closeness = radiusKm > 0 ? 1 - Math.min(store.getDistanceKm() / radiusKm, 1) : 0;
+        double reviews = Math.min(Math.log10(1 + store.getNoOfReviews()) / 3, 1);
+        return STARS_WEIGHT * store.getStars() / 5 + DISTANCE_WEIGHT * closeness + REVIEWS_WEIGHT * reviews;
+    }
+
+    public TopK newTopK() {
+        return new TopK();
+    }
+
+    // Merges two lists sorted by this ranking into one, best first, without repeating a
+    // store name and with at most limit stores. Each list is read once from the front.
+    public ArrayList<StoreSummary> merge(ArrayList<StoreSummary> a, ArrayList<StoreSummary> b) {
+        int max = limit > 0 ? limit : a.size() + b.size();
+        ArrayList<StoreSummary> merged = new ArrayList<>(Math.min(max, a.size() + b.size()));
+        Set<String> names = new HashSet<>();
+        int i = 0;
+        int j = 0;
+        while (merged.size() < max && (i < a.size() || j < b.size())) {
+            StoreSummary next;
+            if (j >= b.size() || (i < a.size() && order.compare(a.get(i), b.get(j)) <= 0)) {
+                next = a.get(i++);
+            } else {
+                next = b.get(j++);
+            }
+            if (names.add(next.getStoreName())) {
+                merged.add(next);
+            }
+        }
+        return merged;
+    }
+
+    // Collects the stores a worker finds. With a limit it keeps only the best ones in a heap
+    // whose head is the worst of them, so every store costs O(log limit).
+    public class TopK {
+        private final ArrayList<StoreSummary> all = new ArrayList<>();
+        private final PriorityQueue<StoreSummary> best = limit > 0 ? new PriorityQueue<>(limit + 1, order.reversed()) : null;
+
+        public void add(StoreSummary store) {
+            if (after != null && order != null && order.compare(store, after) <= 0) {
+                return; // on an earlier page
+            }
+            if (best == null) {
+                all.add(store);
+            } else if (best.size() < limit) {
+                best.add(store);
+            } else if (order.compare(store, best.peek()) < 0) {
+                best.poll();
+                best.add(store);
+            }
+        }
+
+        // The stores kept, best first when the request asked for an order
+        public ArrayList<StoreSummary> result() {
+            ArrayList<StoreSummary> result = best == null ? all : new ArrayList<>(best);
+            if (order != null) {
+                result.sort(order);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.myapplication;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+// The merged result of one "client" or "filter" search on the Reducer. Workers stream their
+// stores here as soon as they have them, and every partial is merged when it arrives.
+// Partials may come before the Master registers the search. The reply goes to the Master
+// once it has registered and all the workers it counted have reported, or at the deadline.
+public class StoreReduction {
+    private final long reduceId;
+    private ArrayList<StoreSummary> merged = new ArrayList<>();
+    private final Set<String> addedNames = new HashSet<>();
+    private int reported;
+    private int expected = -1; // unknown until the Master registers
+    private String clientId;
+    private MessageStream master; // where the merged stores go
+    private boolean finished;
+
+    public StoreReduction(long reduceId) {
+        this.reduceId = reduceId;
+    }
+
+    public long getReduceId() {
+        return reduceId;
+    }
+
+    // Merges the stores of one worker and returns true if the reply can go out now.
+    // Ranked partials arrive sorted and are merged in order, keeping at most the limit.
+    public synchronized boolean add(ArrayList<StoreSummary> partial, StoreRanking ranking) {
+        if (partial != null && ranking != null && ranking.isRanked()) {
+            merged = ranking.merge(merged, partial);
+        } else if (partial != null) {
+            for (StoreSummary store : partial) { // keep the first copy of every store
+                if (addedNames.add(store.getStoreName())) {
+                    merged.add(store);
+                }
+            }
+        }
+        reported++;
+        return isReady();
+    }
+
+    // The Master waits on this stream for the stores of the workers that answered it
+    public synchronized boolean register(String clientId, int shards, MessageStream master) {
+        this.clientId = clientId;
+        this.expected = shards;
+        this.master = master;
+        return isReady();
+    }
+
+    public synchronized boolean isRegistered() {
+        return master != null;
+    }
+
+    private boolean isReady() {
+        return master != null && !finished && reported >= expected;
+    }
+
+    // Sends the stores merged so far to the Master. Only the first call sends anything.
+    public synchronized void finish() throws IOException {
+        if (finished || master == null) {
+            return;
+        }
+        finished = true;
+        if (reported < expected) {
+            System.out.println("[Reducer] Search " + reduceId + ": " + reported + " of " + expected + " workers reported before the deadline");
+        }
+
+        // Send to master
+        master.writeMessage(new WorkerResponse(reduceId, new Object[]{clientId, merged}));
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.myapplication;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Decides which worker owns a store. The Master uses it for every store-specific
+// request so that each one goes to exactly one worker.
+// Placement uses a consistent-hash ring. While stores are being migrated, a per-store
+// override keeps pointing to the old owner until that store has been copied.
+public class StoreRouter {
+    // Virtual nodes per worker, override with -Dfoodapp.virtualNodes=N
+    public static final int VIRTUAL_NODES = Integer.getInteger("foodapp.virtualNodes", 128);
+
+    // Stripes of the write fences, override with -Dfoodapp.fenceStripes=N. A migration batch
+    // blocks the writes of every store that shares a stripe with one of its stores.
+    private static final int FENCE_STRIPES = Math.max(1, Integer.getInteger("foodapp.fenceStripes", 1024));
+
+    private volatile ConsistentHashRing ring;
+    private final Map<String, Integer> overrides = new ConcurrentHashMap<>(); // store key -> worker, during a migration
+
+    // Writes to a store hold the read side of its stripe, a migration holds the write side
+    // while it copies the store, so no write can be lost between the copy and the switch.
+    private final ReentrantReadWriteLock[] fences = new ReentrantReadWriteLock[FENCE_STRIPES];
+
+    public StoreRouter(int numWorkers) {
+        this(numWorkers, VIRTUAL_NODES);
+    }
+
+    public StoreRouter(int numWorkers, int virtualNodes) {
+        this.ring = ConsistentHashRing.of(numWorkers, virtualNodes);
+        for (int i = 0; i < fences.length; i++) {
+            fences[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public int size() {
+        return ring.getNodes().size();
+    }
+
+    // Returns the index of the worker that owns the store
+    public int workerFor(String storeName) {
+        String key = key(storeName);
+        Integer override = overrides.get(key);
+        if (override != null) {
+            return override;
+        }
+        return ring.nodeFor(key);
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    // Replaces the placement of all stores in one step
+    public void setRing(ConsistentHashRing ring) {
+        this.ring = ring;
+    }
+
+    // Keeps routing a store to the given worker, whatever the ring says
+    public void pin(String storeName, int workerId) {
+        overrides.put(key(storeName), workerId);
+    }
+
+    // Routes the store by the ring again
+    public void unpin(String storeName) {
+        overrides.remove(key(storeName));
+    }
+
+    // Called around every request that changes a store
+    public void beginWrite(String storeName) {
+        fence(storeName).readLock().lock();
+    }
+
+    public void endWrite(String storeName) {
+        fence(storeName).readLock().unlock();
+    }
+
+    // Called around a request that changes many stores at once, with the list it returns.
+    // Stripes are locked in index order, as blockWrites does.
+    public List<ReentrantReadWriteLock> beginWrites(Collection<String> storeNames) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String storeName : storeNames) {
+            stripes.add(stripe(storeName));
+        }
+        ArrayList<ReentrantReadWriteLock> locked = new ArrayList<>();
+        for (int stripe : stripes) {
+            fences[stripe].readLock().lock();
+            locked.add(fences[stripe]);
+        }
+        return locked;
+    }
+
+    public void endWrites(List<ReentrantReadWriteLock> locked) {
+        for (int i = locked.size() - 1; i >= 0; i--) {
+            locked.get(i).readLock().unlock();
+        }
+    }
+
+    // Blocks writes to all the given stores, reads are not affected.
+    // Stripes are locked in index order so two migrations cannot deadlock.
+    public List<ReentrantReadWriteLock> blockWrites(Collection<String> storeNames) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String storeName : storeNames) {
+            stripes.add(stripe(storeName));
+        }
+        ArrayList<ReentrantReadWriteLock> locked = new ArrayList<>();
+        for (int stripe : stripes) {
+            fences[stripe].writeLock().lock();
+            locked.add(fences[stripe]);
+        }
+        return locked;
+    }
+
+    public void allowWrites(List<ReentrantReadWriteLock> locked) {
+        for (int i = locked.size() - 1; i >= 0; i--) {
+            locked.get(i).writeLock().unlock();
+        }
+    }
+
+    // Blocks writes to every store, once the writes that already began have ended. Reads are
+    // not affected. Release with allowWrites.
+    public List<ReentrantReadWriteLock> blockAllWrites() {
+        ArrayList<ReentrantReadWriteLock> locked = new ArrayList<>();
+        for (ReentrantReadWriteLock fence : fences) {
+            fence.writeLock().lock();
+            locked.add(fence);
+        }
+        return locked;
+    }
+
+    private ReentrantReadWriteLock fence(String storeName) {
+        return fences[stripe(storeName)];
+    }
+
+    // The fence stripe of a store, stores of the same stripe are blocked together
+    int stripe(String storeName) {
+        return Math.floorMod(key(storeName).hashCode(), FENCE_STRIPES);
+    }
+
+    // Workers index store names ignoring case, so routing must ignore it too
+    public static String key(String storeName) {
+        return StoreIndex.key(storeName);
+    }
+}
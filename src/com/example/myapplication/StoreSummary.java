@@ -0,0 +1,76 @@
+package com.example.myapplication;
+import java.io.Serializable;
+
+// What the "client" and "filter" searches send back for a store: the fields the client
+// shows, without products or purchases, so its size does not grow with the sales of the store.
+// The products of a store are asked for separately with "fetchProducts".
+public class StoreSummary implements Serializable {
+    private String storeName;
+    private double latitude;
+    private double longitude;
+    private String category;
+    private double stars;
+    private int noOfReviews;
+    private String priceCategory;
+    private String storeLogoPath;
+    private double distanceKm; // from the client that searched
+
+    public StoreSummary(String storeName, double latitude, double longitude, String category, double stars, int noOfReviews, String priceCategory, String storeLogoPath, double distanceKm) {
+        this.storeName = storeName;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.category = category;
+        this.stars = stars;
+        this.noOfReviews = noOfReviews;
+        this.priceCategory = priceCategory;
+        this.storeLogoPath = storeLogoPath;
+        this.distanceKm = distanceKm;
+    }
+
+    public StoreSummary(Store store, double distanceKm) {
+        this(store.getStoreName(), store.getLatitude(), store.getLongitude(), store.getCategory(), store.getStars(),
+                store.getNoOfReviews(), store.getPriceCategory(), store.getStoreLogoPath(), distanceKm);
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public double getStars() {
+        return stars;
+    }
+
+    public int getNoOfReviews() {
+        return noOfReviews;
+    }
+
+    public String getPriceCategory() {
+        return priceCategory;
+    }
+
+    public String getStoreLogoPath() {
+        return storeLogoPath;
+    }
+
+    public double getDistanceKm() {
+        return distanceKm;
+    }
+
+    @Override
+    public String toString() {
+        return "Store Name: " + storeName + "\nCategory: " + category + "\nStars: " + String.format("%.2f", stars) + "\nReviews: " + noOfReviews
+                + "\nPrice: " + priceCategory + "\nDistance: " + String.format("%.2f", distanceKm) + " km\nLogo: " + storeLogoPath + "\n";
+    }
+}
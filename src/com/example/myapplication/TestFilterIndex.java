@@ -0,0 +1,81 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Filtered search over the worker's indexes against a scan of every store, once with whole
+// stars and once with average ratings like 4.3333, as stores have after a few "rate" requests.
+// Checks that both return the same stores and prints the time per query.
+// Usage: java com.example.myapplication.TestFilterIndex [numStores] [radiusKm] [queries]
+public class TestFilterIndex {
+    private static final String[] CATEGORIES = {"pizzeria", "burger", "sushi", "greek", "healthy", "coffee", "bakery", "indian"};
+    private static final String[] PRICES = {"", "$", "$$", "$$$"};
+
+    public static void main(String[] args) {
+        int numStores = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        double radius = args.length > 1 ? Double.parseDouble(args[1]) : 50.0;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        run(numStores, radius, queries, false);
+        run(numStores, radius, queries, true);
+    }
+
+    private static void run(int numStores, double radius, int queries, boolean fractionalStars) {
+        Random random = new Random(42);
+        StoreIndex index = new StoreIndex();
+        for (int i = 0; i < numStores; i++) {
+            ArrayList<Product> products = new ArrayList<>();
+            products.add(new Product("item", "food", 10, 1 + random.nextInt(25)));
+            Store store = new Store("Store " + i, 37.98 + (random.nextDouble() - 0.5) * 2, 23.73 + (random.nextDouble() - 0.5) * 2,
+                    CATEGORIES[random.nextInt(CATEGORIES.length)], 1 + random.nextInt(5), 10, "logo.png", products);
+            if (fractionalStars) {
+                store.setStars(1 + random.nextInt(4000) / 1000.0); // e.g. 4.333
+            }
+            index.add(store);
+        }
+
+        long scanNanos = 0;
+        long indexNanos = 0;
+        long found = 0;
+        int mismatches = 0;
+        for (int q = 0; q < queries; q++) {
+            GeoDistance.Circle area = new GeoDistance.Circle(37.98 + (random.nextDouble() - 0.5) * 2, 23.73 + (random.nextDouble() - 0.5) * 2, radius);
+            List<String> categories = random.nextBoolean() ? new ArrayList<>() : Arrays.asList(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            double minStars = fractionalStars ? random.nextInt(51) / 10.0 : random.nextInt(6);
+            String price = PRICES[random.nextInt(PRICES.length)];
+
+            long start = System.nanoTime();
+            int expected = 0;
+            for (Store store : index.values()) {
+                if (matches(store, area, categories, minStars, price)) expected++;
+            }
+            scanNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int actual = 0;
+            for (Store store : index.filter(area, categories, minStars, price)) {
+                if (matches(store, area, categories, minStars, price)) actual++;
+            }
+            indexNanos += System.nanoTime() - start;
+
+            found += actual;
+            if (actual != expected) mismatches++;
+        }
+
+        System.out.println("Filtered search over " + numStores + " stores, " + radius + " km, " + queries + " queries, "
+                + (fractionalStars ? "average" : "whole") + " stars:");
+        System.out.println("=====================================");
+        System.out.printf("scan:    %.1f us/query%n", scanNanos / 1000.0 / queries);
+        System.out.printf("indexes: %.1f us/query%n", indexNanos / 1000.0 / queries);
+        System.out.println("stores found: " + found + ", queries that disagree: " + mismatches);
+    }
+
+    // The same predicates as the "filter" role
+    private static boolean matches(Store store, GeoDistance.Circle area, List<String> categories, double minStars, String price) {
+        return area.contains(store.getLatitude(), store.getLongitude())
+                && (categories.isEmpty() || categories.contains(store.getCategory()))
+                && (minStars == 0 || store.getStars() >= minStars)
+                && (price.isEmpty() || store.getPriceCategory().equalsIgnoreCase(price));
+    }
+}
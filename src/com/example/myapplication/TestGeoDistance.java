@@ -0,0 +1,82 @@
+package com.example.myapplication;
+import java.util.Random;
+
+// Compares the distance checks of the "filter" loop: the old Euclidean check on degrees,
+// plain haversine, and GeoDistance.Circle in its exact and equirectangular modes.
+// Also prints the error of the equirectangular approximation.
+// Usage: java com.example.myapplication.TestGeoDistance [numStores] [radiusKm] [queries]
+public class TestGeoDistance {
+    private static final int ROUNDS = 3; // the first rounds warm up the JIT, the last one is printed
+
+    public static void main(String[] args) {
+        int numStores = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        double radius = args.length > 1 ? Double.parseDouble(args[1]) : 5.0;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        Random random = new Random(42);
+        double[] lats = new double[numStores];
+        double[] lons = new double[numStores];
+        for (int i = 0; i < numStores; i++) {
+            lats[i] = 37.98 + (random.nextDouble() - 0.5) * 2;
+            lons[i] = 23.73 + (random.nextDouble() - 0.5) * 2;
+        }
+        double[][] clients = new double[queries][2];
+        for (int q = 0; q < queries; q++) {
+            clients[q][0] = 37.98 + (random.nextDouble() - 0.5) * 2;
+            clients[q][1] = 23.73 + (random.nextDouble() - 0.5) * 2;
+        }
+
+        System.out.println("Distance check over " + numStores + " stores, " + radius + " km, " + queries + " queries:");
+        System.out.println("=====================================");
+        System.out.printf("%-24s %-14s %-10s%n", "variant", "ns/store", "matches");
+
+        String[] variants = {"euclidean degrees (old)", "haversine", "circle exact", "circle equirectangular"};
+        for (int variant = 0; variant < variants.length; variant++) {
+            long nanos = 0;
+            long matches = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                matches = run(variant, lats, lons, clients, radius);
+                nanos = System.nanoTime() - start;
+            }
+            System.out.printf("%-24s %-14.2f %-10d%n", variants[variant], (double) nanos / numStores / queries, matches);
+        }
+
+        System.out.println();
+        System.out.println("Equirectangular error against haversine:");
+        System.out.println("=====================================");
+        System.out.printf("%-10s %-10s %-14s%n", "latitude", "km", "max error %");
+        for (double lat : new double[]{0, 38, 60}) {
+            for (double km : new double[]{1, 5, 20, 100}) {
+                double worst = 0;
+                for (int bearing = 0; bearing < 360; bearing += 5) {
+                    double dLat = Math.toDegrees(km / GeoDistance.EARTH_RADIUS_KM) * Math.cos(Math.toRadians(bearing));
+                    double dLon = Math.toDegrees(km / GeoDistance.EARTH_RADIUS_KM) * Math.sin(Math.toRadians(bearing)) / Math.cos(Math.toRadians(lat));
+                    double exact = GeoDistance.haversineKm(lat, 10, lat + dLat, 10 + dLon);
+                    double fast = GeoDistance.equirectangularKm(lat, 10, lat + dLat, 10 + dLon);
+                    worst = Math.max(worst, Math.abs(fast - exact) / exact);
+                }
+                System.out.printf("%-10.0f %-10.0f %-14.5f%n", lat, km, 100 * worst);
+            }
+        }
+    }
+
+    private static long run(int variant, double[] lats, double[] lons, double[][] clients, double radius) {
+        long matches = 0;
+        for (double[] client : clients) {
+            GeoDistance.Circle area = new GeoDistance.Circle(client[0], client[1], radius, variant == 2);
+            for (int i = 0; i < lats.length; i++) {
+                boolean match;
+                if (variant == 0) {
+                    match = Math.sqrt(Math.pow(client[0] - lats[i], 2) + Math.pow(client[1] - lons[i], 2)) <= radius;
+                } else if (variant == 1) {
+                    match = GeoDistance.haversineKm(client[0], client[1], lats[i], lons[i]) <= radius;
+                } else {
+                    match = area.contains(lats[i], lons[i]);
+                }
+                if (match) matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Random;
+
+// Radius search latency of the worker's store grid against a scan of every store.
+// Usage: java com.example.myapplication.TestGeoGrid [radiusKm] [queries]
+public class TestGeoGrid {
+    public static void main(String[] args) {
+        double radius = args.length > 0 ? Double.parseDouble(args[0]) : 5.0; // km, like the client searches
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        System.out.println("Radius search, " + radius + " km, " + queries + " queries, cell " + GeoGridIndex.CELL_DEGREES + " degrees:");
+        System.out.println("=====================================");
+        System.out.printf("%-10s %-14s %-14s%n", "stores", "scan us/query", "grid us/query");
+
+        for (int numStores : new int[]{100, 1000, 10000, 100000, 300000}) {
+            Random random = new Random(42);
+            StoreIndex index = new StoreIndex();
+            for (int i = 0; i < numStores; i++) {
+                // Stores spread over about 200 x 200 km
+                double lat = 37.98 + (random.nextDouble() - 0.5) * 2;
+                double lon = 23.73 + (random.nextDouble() - 0.5) * 2;
+                index.add(new Store("Store " + i, lat, lon, "pizzeria", 4, 10, "logo.png", new ArrayList<Product>()));
+            }
+
+            double[][] clients = new double[queries][2];
+            for (int q = 0; q < queries; q++) {
+                clients[q][0] = 37.98 + (random.nextDouble() - 0.5) * 2;
+                clients[q][1] = 23.73 + (random.nextDouble() - 0.5) * 2;
+            }
+
+            long found = 0;
+            long start = System.nanoTime();
+            for (double[] client : clients) {
+                for (Store store : index.values()) {
+                    if (GeoDistance.haversineKm(client[0], client[1], store.getLatitude(), store.getLongitude()) <= radius) found++;
+                }
+            }
+            long scanNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (double[] client : clients) {
+                GeoDistance.Circle area = new GeoDistance.Circle(client[0], client[1], radius, true);
+                for (Store store : index.near(area.getMinLat(), area.getMaxLat(), area.getMinLon(), area.getMaxLon())) {
+                    if (area.contains(store.getLatitude(), store.getLongitude())) found--;
+                }
+            }
+            long gridNanos = System.nanoTime() - start;
+
+            if (found != 0) {
+                System.out.println("Grid and scan disagree by " + found + " stores");
+            }
+            System.out.printf("%-10d %-14.1f %-14.1f%n", numStores, scanNanos / 1000.0 / queries, gridNanos / 1000.0 / queries);
+        }
+    }
+}
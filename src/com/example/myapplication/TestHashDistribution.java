@@ -1,22 +1,84 @@
 package com.example.myapplication;
 
+// Skew report for the consistent-hash ring that places stores on workers.
+// Usage: java com.example.myapplication.TestHashDistribution [numWorkers] [numStores]
 public class TestHashDistribution {
     public static void main(String[] args) {
         String[] storeNames = {
             "Burger House",
-            "Sushi Zen", 
+            "Sushi Zen",
             "Healthy Bites",
             "Street Gyros"
         };
-        
-        int numWorkers = 3; // Υποθέτοντας 3 workers
-        
+
+        int numWorkers = args.length > 0 ? Integer.parseInt(args[0]) : 3; // Υποθέτοντας 3 workers
+        int numStores = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        // Same routing the Master uses for store-specific requests
+        StoreRouter router = new StoreRouter(numWorkers);
+
         System.out.println("Hash distribution of stores to workers:");
         System.out.println("=====================================");
-        
+
         for (String storeName : storeNames) {
-            int workerId = Math.abs(storeName.hashCode()) % numWorkers;
-            System.out.println(storeName + " -> Worker " + workerId + " (hash: " + storeName.hashCode() + ")");
+            int workerId = router.workerFor(storeName);
+            System.out.println(storeName + " -> Worker " + workerId + " (ring hash: " + ConsistentHashRing.hash(StoreRouter.key(storeName)) + ")");
+        }
+
+        String[] keys = new String[numStores];
+        for (int i = 0; i < numStores; i++) {
+            keys[i] = StoreRouter.key("Store " + i);
+        }
+
+        System.out.println();
+        System.out.println("Skew of " + numStores + " stores over " + numWorkers + " workers:");
+        System.out.println("=====================================");
+        System.out.printf("%-14s %-10s %-10s %-12s %-10s%n", "virtualNodes", "min", "max", "max/mean", "stddev %");
+
+        for (int virtualNodes : new int[]{1, 8, 32, 128, 512}) {
+            ConsistentHashRing ring = ConsistentHashRing.of(numWorkers, virtualNodes);
+            int[] counts = new int[numWorkers];
+            for (String key : keys) {
+                counts[ring.nodeFor(key)]++;
+            }
+            printSkew(String.valueOf(virtualNodes), counts, numStores);
+        }
+
+        int[] moduloCounts = new int[numWorkers];
+        for (String key : keys) {
+            moduloCounts[Math.floorMod(key.hashCode(), numWorkers)]++;
+        }
+        printSkew("hashCode % n", moduloCounts, numStores);
+
+        // How many stores change worker when one worker is added
+        ConsistentHashRing before = router.getRing();
+        ConsistentHashRing after = before.withNode(numWorkers);
+        int movedRing = 0;
+        int movedModulo = 0;
+        for (String key : keys) {
+            if (before.nodeFor(key) != after.nodeFor(key)) movedRing++;
+            if (Math.floorMod(key.hashCode(), numWorkers) != Math.floorMod(key.hashCode(), numWorkers + 1)) movedModulo++;
+        }
+
+        System.out.println();
+        System.out.println("Stores moved when adding worker " + numWorkers + ":");
+        System.out.println("=====================================");
+        System.out.printf("ring (%d virtual nodes): %d (%.1f%%)%n", before.getVirtualNodes(), movedRing, 100.0 * movedRing / numStores);
+        System.out.printf("hashCode %% n:            %d (%.1f%%)%n", movedModulo, 100.0 * movedModulo / numStores);
+        System.out.printf("ideal:                   %.1f%%%n", 100.0 / (numWorkers + 1));
+    }
+
+    private static void printSkew(String label, int[] counts, int numStores) {
+        double mean = (double) numStores / counts.length;
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        double variance = 0;
+        for (int count : counts) {
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+            variance += (count - mean) * (count - mean);
         }
+        double stddev = Math.sqrt(variance / counts.length);
+        System.out.printf("%-14s %-10d %-10d %-12.3f %-10.2f%n", label, min, max, max / mean, 100 * stddev / mean);
     }
 }
@@ -0,0 +1,100 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+
+// Heap kept by the purchase history of one worker, as a list of Purchase objects and as
+// PurchaseLog columns, and the time of a full collection with each one alive. Also checks
+// that every purchase reads back the same from the log.
+// Run with a fixed heap, e.g. java -Xmx2g com.example.myapplication.TestPurchaseLog [stores] [purchasesPerStore]
+public class TestPurchaseLog {
+    private static final String[] CATEGORIES = {"pizza", "salad", "drink", "dessert"};
+
+    private static Object alive; // keeps what is being measured reachable
+
+    public static void main(String[] args) {
+        int numStores = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int perStore = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+
+        long base = usedHeap();
+        ArrayList<ArrayList<Purchase>> lists = new ArrayList<>();
+        for (int s = 0; s < numStores; s++) {
+            Random random = new Random(s);
+            ArrayList<Purchase> purchases = new ArrayList<>();
+            for (int i = 0; i < perStore; i++) {
+                purchases.add(randomPurchase(random, i));
+            }
+            lists.add(purchases);
+        }
+        alive = lists;
+        long listBytes = usedHeap() - base;
+        long listGcMs = timedGc();
+        lists = null;
+        alive = null;
+
+        base = usedHeap();
+        ArrayList<PurchaseLog> logs = new ArrayList<>();
+        for (int s = 0; s < numStores; s++) {
+            Random random = new Random(s);
+            PurchaseLog log = new PurchaseLog();
+            for (int i = 0; i < perStore; i++) {
+                log.add(randomPurchase(random, i));
+            }
+            logs.add(log);
+        }
+        alive = logs;
+        long logBytes = usedHeap() - base;
+        long logGcMs = timedGc();
+
+        boolean same = true;
+        for (int s = 0; s < numStores && same; s++) {
+            Random random = new Random(s);
+            for (int i = 0; i < perStore && same; i++) {
+                same = describe(randomPurchase(random, i)).equals(describe(logs.get(s).get(i)));
+            }
+        }
+        Map<String, Integer> bought = logs.get(0).unitsBoughtBy("Customer 7");
+
+        System.out.println("Purchase history of " + numStores + " stores x " + perStore + " purchases:");
+        System.out.println("=====================================");
+        System.out.printf("ArrayList<Purchase>: %8.1f MB, full GC %5d ms%n", listBytes / 1e6, listGcMs);
+        System.out.printf("PurchaseLog:         %8.1f MB, full GC %5d ms%n", logBytes / 1e6, logGcMs);
+        System.out.println("same purchases read back: " + same + ", customer 7 bought " + bought.size() + " products");
+    }
+
+    private static Purchase randomPurchase(Random random, int i) {
+        ArrayList<Product> items = new ArrayList<>();
+        for (int k = 1 + random.nextInt(3); k > 0; k--) {
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            // new String objects, as each purchase arrives deserialized with its own copies
+            items.add(new Product(new String(category + " " + random.nextInt(20)), new String(category), 1 + random.nextInt(3), 1 + random.nextInt(20)));
+        }
+        int customer = random.nextInt(1000);
+        Purchase purchase = new Purchase("customer " + customer, "c" + customer + "@x", items);
+        purchase.setPurchasedAt(1_700_000_000_000L + i * 1000L);
+        return purchase;
+    }
+
+    private static String describe(Purchase purchase) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(purchase.getCustomerName()).append('|').append(purchase.getCustomerEmail()).append('|')
+                .append(purchase.getTotalPrice()).append('|').append(purchase.getPurchasedAt());
+        for (Product product : purchase.getPurchasedProducts()) {
+            sb.append('|').append(product.getName()).append(',').append(product.getCategory())
+                    .append(',').append(product.getQuantity()).append(',').append(product.getPrice());
+        }
+        return sb.toString();
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long timedGc() {
+        long start = System.nanoTime();
+        System.gc();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
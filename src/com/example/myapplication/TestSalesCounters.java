@@ -0,0 +1,69 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Random;
+
+// The "productCategory" report of one worker, answered by going through every purchase as it
+// used to and by reading the sales counters. Checks that both give the same totals and prints
+// the time of each as the purchase history grows.
+// Usage: java com.example.myapplication.TestSalesCounters [stores] [purchasesPerStore]
+public class TestSalesCounters {
+    private static final String[] CATEGORIES = {"pizza", "salad", "drink", "dessert", "burger"};
+
+    public static void main(String[] args) {
+        int numStores = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int perStore = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int rounds = 20;
+
+        Random random = new Random(42);
+        ArrayList<Store> stores = new ArrayList<>();
+        for (int s = 0; s < numStores; s++) {
+            Store store = new Store("Store " + s, 37.98, 23.73, "pizzeria", 4, 100, "logo.png", new ArrayList<>());
+            for (int i = 0; i < perStore; i++) {
+                ArrayList<Product> items = new ArrayList<>();
+                for (int k = 1 + random.nextInt(3); k > 0; k--) {
+                    String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                    items.add(new Product(category + " " + random.nextInt(10), category, 1 + random.nextInt(3), 5));
+                }
+                store.addPurchase(new Purchase("customer " + i, "c" + i + "@x", items));
+            }
+            stores.add(store);
+        }
+
+        long scanNanos = 0;
+        long counterNanos = 0;
+        boolean same = true;
+        for (int round = 0; round < rounds; round++) {
+            String category = CATEGORIES[round % CATEGORIES.length];
+
+            long start = System.nanoTime();
+            long[] scanned = new long[numStores];
+            for (int s = 0; s < numStores; s++) {
+                for (Purchase purchase : stores.get(s).getPurchases()) {
+                    for (Product product : purchase.getPurchasedProducts()) {
+                        if (product.getCategory().equalsIgnoreCase(category)) {
+                            scanned[s] += product.getQuantity();
+                        }
+                    }
+                }
+            }
+            scanNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long[] counted = new long[numStores];
+            for (int s = 0; s < numStores; s++) {
+                counted[s] = stores.get(s).getSales().getUnitsInCategory(category);
+            }
+            counterNanos += System.nanoTime() - start;
+
+            for (int s = 0; s < numStores; s++) {
+                same &= scanned[s] == counted[s];
+            }
+        }
+
+        System.out.println("productCategory over " + numStores + " stores x " + perStore + " purchases:");
+        System.out.println("=====================================");
+        System.out.printf("scan purchases: %10.3f ms/report%n", scanNanos / 1e6 / rounds);
+        System.out.printf("read counters:  %10.3f ms/report%n", counterNanos / 1e6 / rounds);
+        System.out.println("same totals: " + same);
+    }
+}
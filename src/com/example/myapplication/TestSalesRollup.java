@@ -0,0 +1,80 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Random;
+
+// Sales over the last minutes, hours and days of one store, from the rollup and by going through
+// every purchase. The purchases are spread over the last 40 days, so the oldest ones have left
+// every ring and the older buckets have been reused. Checks that both ways agree on every
+// window the rings keep, and prints the time of each.
+// Usage: java com.example.myapplication.TestSalesRollup [purchases]
+public class TestSalesRollup {
+    private static final String[] CATEGORIES = {"pizza", "salad", "drink"};
+
+    public static void main(String[] args) {
+        int numPurchases = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        long now = System.currentTimeMillis();
+        long span = 40 * SalesRollup.DAY_MS;
+
+        Random random = new Random(42);
+        ArrayList<Purchase> purchases = new ArrayList<>();
+        for (int i = 0; i < numPurchases; i++) {
+            // Half of them in the last two days, to fill the minute and hour buckets
+            long age = i % 2 == 0 ? (long) (random.nextDouble() * span) : (long) (random.nextDouble() * 2 * SalesRollup.DAY_MS);
+            purchases.add(randomPurchase(random, i, now - age));
+        }
+        purchases.sort((a, b) -> Long.compare(a.getPurchasedAt(), b.getPurchasedAt())); // as a worker records them
+
+        Store store = new Store("Store", 37.98, 23.73, "pizzeria", 4, 100, "logo.png", new ArrayList<>());
+        for (Purchase purchase : purchases) {
+            store.addPurchase(purchase);
+        }
+
+        String[] windows = {"1m", "15m", "60m", "1h", "6h", "48h", "1d", "7d", "30d"};
+        long scanNanos = 0;
+        long rollupNanos = 0;
+        boolean same = true;
+        for (String text : windows) {
+            SalesRollup.Window window = SalesRollup.parseWindow(text);
+            long from = (now / window.getUnitMs() - window.getCount() + 1) * window.getUnitMs();
+
+            long start = System.nanoTime();
+            long scannedUnits = 0;
+            double scannedRevenue = 0;
+            for (Purchase purchase : store.getPurchases()) {
+                if (purchase.getPurchasedAt() < from || purchase.getPurchasedAt() > now) continue;
+                for (Product product : purchase.getPurchasedProducts()) {
+                    if (product.getCategory().equals("pizza")) {
+                        scannedUnits += product.getQuantity();
+                        scannedRevenue += product.getPrice() * product.getQuantity();
+                    }
+                }
+            }
+            scanNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            SalesRollup.Amount amount = store.getRollup().total(window, SalesRollup.CATEGORY, "pizza", now);
+            rollupNanos += System.nanoTime() - start;
+
+            boolean match = amount.getUnits() == scannedUnits && Math.abs(amount.getRevenue() - scannedRevenue) < 1e-6 * Math.max(1, scannedRevenue);
+            same &= match;
+            System.out.printf("%-4s %8d units %14.2f €  %s%n", text, amount.getUnits(), amount.getRevenue(), match ? "" : "expected " + scannedUnits);
+        }
+
+        System.out.println("pizza sales of one store with " + numPurchases + " purchases, " + windows.length + " windows:");
+        System.out.println("=====================================");
+        System.out.printf("scan purchases: %10.3f ms/window%n", scanNanos / 1e6 / windows.length);
+        System.out.printf("read rollup:    %10.3f ms/window%n", rollupNanos / 1e6 / windows.length);
+        System.out.println("same totals: " + same);
+    }
+
+    private static Purchase randomPurchase(Random random, int i, long time) {
+        ArrayList<Product> items = new ArrayList<>();
+        for (int k = 1 + random.nextInt(3); k > 0; k--) {
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            items.add(new Product(category + " " + random.nextInt(10), category, 1 + random.nextInt(3), 1 + random.nextInt(20)));
+        }
+        Purchase purchase = new Purchase("customer " + i, "c" + i + "@x", items);
+        purchase.setPurchasedAt(time);
+        return purchase;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.myapplication;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+// Stores per second the Master adds to its workers, one "manager" request per store and
+// waiting for each reply, against one "addStores" batch per worker sent to all workers at
+// once, as Actions does now. Starts the workers inside this process on free ports.
+// Usage: java com.example.myapplication.TestStoreIngestion [stores] [workers] [batch]
+public class TestStoreIngestion {
+    private static final String[] CATEGORIES = {"pizzeria", "burger", "sushi", "greek", "healthy", "coffee", "bakery", "indian"};
+
+    public static void main(String[] args) throws Exception {
+        int numStores = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int numWorkers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int batch = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        String[][] workers = new String[numWorkers][];
+        for (int i = 0; i < numWorkers; i++) {
+            String port = String.valueOf(5601 + i);
+            workers[i] = new String[]{"127.0.0.1", port};
+            Thread worker = new Thread(() -> {
+                try {
+                    Worker.main(new String[]{port});
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Thread.sleep(1000);
+
+        WorkerPool pool = new WorkerPool(workers);
+        StoreRouter router = new StoreRouter(numWorkers);
+
+        // One request per store
+        ArrayList<Store> stores = randomStores("One ", numStores);
+        long start = System.nanoTime();
+        int added = 0;
+        for (Store store : stores) {
+            Object[] reply = pool.call(router.workerFor(store.getStoreName()), "manager", store);
+            if ("Store added successfully".equals(reply[0])) added++;
+        }
+        double oneByOne = added / ((System.nanoTime() - start) / 1e9);
+
+        // One batch per worker, all workers in parallel
+        stores = randomStores("Batched ", numStores);
+        start = System.nanoTime();
+        int addedBatched = 0;
+        for (int from = 0; from < stores.size(); from += batch) {
+            Map<Integer, ArrayList<Store>> batches = new TreeMap<>();
+            for (Store store : stores.subList(from, Math.min(stores.size(), from + batch))) {
+                batches.computeIfAbsent(router.workerFor(store.getStoreName()), id -> new ArrayList<>()).add(store);
+            }
+            ArrayList<CompletableFuture<Object[]>> replies = new ArrayList<>();
+            for (Map.Entry<Integer, ArrayList<Store>> entry : batches.entrySet()) {
+                replies.add(pool.submit(entry.getKey(), "addStores", entry.getValue()));
+            }
+            for (CompletableFuture<Object[]> reply : replies) {
+                for (String result : (ArrayList<String>) reply.get()[0]) {
+                    if ("Store added successfully".equals(result)) addedBatched++;
+                }
+            }
+        }
+        double batched = addedBatched / ((System.nanoTime() - start) / 1e9);
+
+        // The same stores again, all already there
+        Object[] again = pool.call(router.workerFor(stores.get(0).getStoreName()), "addStores", new ArrayList<>(stores.subList(0, 1)));
+
+        System.out.println(numStores + " stores over " + numWorkers + " workers, batches of " + batch + ":");
+        System.out.println("=====================================");
+        System.out.printf("one request per store: %10.0f stores/s (%d added)%n", oneByOne, added);
+        System.out.printf("batch per worker:      %10.0f stores/s (%d added)%n", batched, addedBatched);
+        System.out.println("store sent twice: " + again[0]);
+
+        pool.close();
+        System.exit(0);
+    }
+
+    private static ArrayList<Store> randomStores(String prefix, int numStores) {
+        Random random = new Random(7);
+        ArrayList<Store> stores = new ArrayList<>();
+        for (int i = 0; i < numStores; i++) {
+            ArrayList<Product> products = new ArrayList<>();
+            for (int p = 0; p < 5; p++) {
+                products.add(new Product("product " + p, "food", 100, 2 + random.nextInt(20)));
+            }
+            stores.add(new Store(prefix + i, 37.9 + random.nextDouble() * 0.2, 23.6 + random.nextDouble() * 0.2,
+                    CATEGORIES[random.nextInt(CATEGORIES.length)], 1 + random.nextInt(5), random.nextInt(500), "logo.png", products));
+        }
+        return stores;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.myapplication;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+// A ranked search with a limit against sending every match: each simulated worker finds
+// matchesPerWorker stores, keeps its best K with StoreRanking.TopK, and the partials are merged
+// as the Reducer does. Checks that the result is the first K of the full sorted list, and
+// prints the bytes on the wire and the time of both ways.
+// Usage: java com.example.myapplication.TestTopK [workers] [matchesPerWorker] [k] [sortBy]
+public class TestTopK {
+    public static void main(String[] args) throws IOException {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int matches = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String sortBy = args.length > 3 ? args[3] : StoreRanking.SCORE;
+        int rounds = 20;
+
+        Random random = new Random(42);
+        double radius = 5.0;
+        ArrayList<ArrayList<StoreSummary>> found = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            ArrayList<StoreSummary> stores = new ArrayList<>();
+            for (int i = 0; i < matches; i++) {
+                stores.add(new StoreSummary("Store " + w + "-" + i, 37.98, 23.73, "pizzeria", 1 + random.nextInt(5),
+                        random.nextInt(2000), "$$", "logo.png", random.nextDouble() * radius));
+            }
+            found.add(stores);
+        }
+
+        StoreRanking all = new StoreRanking(sortBy, 0, radius);
+        StoreRanking top = new StoreRanking(sortBy, k, radius);
+
+        long allNanos = 0;
+        long topNanos = 0;
+        long allBytes = 0;
+        long topBytes = 0;
+        ArrayList<StoreSummary> expected = null;
+        ArrayList<StoreSummary> actual = null;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            ArrayList<StoreSummary> merged = new ArrayList<>();
+            for (ArrayList<StoreSummary> stores : found) {
+                StoreRanking.TopK collected = all.newTopK();
+                for (StoreSummary store : stores) collected.add(store);
+                ArrayList<StoreSummary> partial = collected.result();
+                allBytes += WireCodec.encodeFrame(new WorkerResponse(round, new Object[]{"client", partial})).length;
+                merged = all.merge(merged, partial);
+            }
+            allNanos += System.nanoTime() - start;
+            expected = merged;
+
+            start = System.nanoTime();
+            merged = new ArrayList<>();
+            for (ArrayList<StoreSummary> stores : found) {
+                StoreRanking.TopK collected = top.newTopK();
+                for (StoreSummary store : stores) collected.add(store);
+                ArrayList<StoreSummary> partial = collected.result();
+                topBytes += WireCodec.encodeFrame(new WorkerResponse(round, new Object[]{"client", partial})).length;
+                merged = top.merge(merged, partial);
+            }
+            topNanos += System.nanoTime() - start;
+            actual = merged;
+        }
+
+        boolean same = actual.size() == Math.min(k, expected.size());
+        for (int i = 0; same && i < actual.size(); i++) {
+            same = actual.get(i).getStoreName().equals(expected.get(i).getStoreName());
+        }
+
+        System.out.println("Top " + k + " by " + sortBy + " of " + workers + " workers x " + matches + " matches:");
+        System.out.println("=====================================");
+        System.out.printf("all matches: %8.2f ms/search, %10d bytes from the workers%n", allNanos / 1e6 / rounds, allBytes / rounds);
+        System.out.printf("top %-7d: %8.2f ms/search, %10d bytes from the workers%n", k, topNanos / 1e6 / rounds, topBytes / rounds);
+        System.out.println("same stores as the first " + k + " of the full list: " + same);
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.myapplication;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Size and speed of the binary frames of WireCodec against Java serialization,
+// for the messages the Master, the Workers and the Reducer send the most.
+// Checks that every binary message decodes back to the same content.
+// Usage: java com.example.myapplication.TestWireProtocol [stores] [iterations]
+public class TestWireProtocol {
+    private static final String[] CATEGORIES = {"pizzeria", "burger", "sushi", "greek", "healthy", "coffee", "bakery", "indian"};
+
+    public static void main(String[] args) throws IOException {
+        int numStores = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Random random = new Random(42);
+        ArrayList<Store> stores = new ArrayList<>();
+        ArrayList<StoreSummary> summaries = new ArrayList<>();
+        for (int i = 0; i < numStores; i++) {
+            Store store = randomStore(random, i);
+            stores.add(store);
+            summaries.add(new StoreSummary(store, random.nextDouble() * 5));
+        }
+
+        ArrayList<Product> basket = new ArrayList<>();
+        basket.add(new Product("margarita", "pizza", 2, 9.2));
+        basket.add(new Product("special", "pizza", 1, 12.0));
+        Purchase purchase = new Purchase("bob", "b@x", basket);
+
+        Map<String, Integer> sales = new HashMap<>();
+        for (int i = 0; i < numStores; i++) {
+            sales.put("Store " + i, random.nextInt(1000));
+        }
+
+        Store migrated = randomStore(random, numStores);
+        for (int i = 0; i < 100; i++) { // separate orders, as the worker keeps them
+            ArrayList<Product> items = new ArrayList<>();
+            items.add(new Product("item " + random.nextInt(5), "food", 1 + random.nextInt(3), 1 + random.nextInt(25)));
+            migrated.addPurchase(new Purchase("customer " + i, "c" + i + "@x", items));
+        }
+
+        Object[][] messages = {
+                {"filter reply, " + numStores + " stores", new WorkerResponse(1, new Object[]{"client-1", stores})},
+                {"filter reply, " + numStores + " summaries", new WorkerResponse(1, new Object[]{"client-1", summaries})},
+                {"purchase request", new WorkerRequest(2, "purchase", new Object[]{"client-1", purchase, "Store 1"})},
+                {"storeType reply", new WorkerResponse(3, new Object[]{sales})},
+                {"importStore, 100 purchases", new WorkerRequest(4, "importStore", new Object[]{migrated})},
+        };
+
+        System.out.println("Wire protocol, " + iterations + " round trips per message:");
+        System.out.println("=====================================");
+        System.out.printf("%-28s %10s %10s %12s %12s%n", "message", "java B", "binary B", "java us", "binary us");
+        for (Object[] row : messages) {
+            String label = (String) row[0];
+            Object message = row[1];
+
+            byte[] javaBytes = javaEncode(message);
+            byte[] binaryBytes = WireCodec.encodeFrame(message);
+            if (!describe(WireCodec.decodeFrame(binaryBytes)).equals(describe(message))) {
+                System.out.println("MISMATCH after decoding: " + label);
+            }
+
+            // Warm up both paths before timing
+            for (int i = 0; i < iterations / 4; i++) {
+                javaDecode(javaEncode(message));
+                WireCodec.decodeFrame(WireCodec.encodeFrame(message));
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                javaDecode(javaEncode(message));
+            }
+            long javaNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                WireCodec.decodeFrame(WireCodec.encodeFrame(message));
+            }
+            long binaryNanos = System.nanoTime() - start;
+
+            System.out.printf("%-28s %10d %10d %12.1f %12.1f%n", label, javaBytes.length, binaryBytes.length,
+                    javaNanos / 1000.0 / iterations, binaryNanos / 1000.0 / iterations);
+        }
+    }
+
+    private static Store randomStore(Random random, int i) {
+        ArrayList<Product> products = new ArrayList<>();
+        for (int p = 0; p < 5; p++) {
+            products.add(new Product("item " + p, "food", 1 + random.nextInt(100), 1 + random.nextInt(25)));
+        }
+        return new Store("Store " + i, 37.98 + (random.nextDouble() - 0.5) * 2, 23.73 + (random.nextDouble() - 0.5) * 2,
+                CATEGORIES[random.nextInt(CATEGORIES.length)], 1 + random.nextInt(5), 10, "logo.png", products);
+    }
+
+    private static String describe(Object message) {
+        if (message instanceof WorkerRequest) {
+            WorkerRequest request = (WorkerRequest) message;
+            StringBuilder described = new StringBuilder(request.getRequestId() + " " + request.getRole() + " " + Arrays.deepToString(request.getArgs()));
+            for (Object arg : request.getArgs()) {
+                if (arg instanceof Store) { // the purchase history, which Store.toString leaves out
+                    Store store = (Store) arg;
+                    for (Purchase purchase : store.getPurchases()) {
+                        described.append('\n').append(purchase).append(" at ").append(purchase.getPurchasedAt());
+                    }
+                    described.append("\nunits sold ").append(store.getSales().getUnits());
+                }
+            }
+            return described.toString();
+        }
+        WorkerResponse response = (WorkerResponse) message;
+        StringBuilder described = new StringBuilder(response.getRequestId() + " " + Arrays.deepToString(response.getValues()));
+        for (Object value : response.getValues()) {
+            if (value instanceof List) { // the exact fields, which StoreSummary.toString rounds or leaves out
+                for (Object element : (List<?>) value) {
+                    if (element instanceof StoreSummary) {
+                        StoreSummary summary = (StoreSummary) element;
+                        described.append('\n').append(summary.getLatitude()).append(' ').append(summary.getLongitude())
+                                .append(' ').append(summary.getStars()).append(' ').append(summary.getDistanceKm());
+                    }
+                }
+            }
+        }
+        return described.toString();
+    }
+
+    // What a fresh ObjectOutputStream writes for one message, header included
+    private static byte[] javaEncode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object javaDecode(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
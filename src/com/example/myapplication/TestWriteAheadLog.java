@@ -0,0 +1,182 @@
+package com.example.myapplication;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Purchases per second of one worker's stores without a log and with the write-ahead log,
+// from several threads as the request pool runs them, while other threads restock. Stock is
+// kept low so that purchases and restocks race around zero. Then recovers the logged stores into
+// a new index, as a restarted worker would, and checks the stock and the purchases are the
+// same, once from the log alone and once from a snapshot and the log after it.
+// Usage: java [-Dfoodapp.walSync=false] com.example.myapplication.TestWriteAheadLog [threads] [purchasesPerThread] [stores]
+public class TestWriteAheadLog {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int numStores = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        File dir = Files.createTempDirectory("foodapp-wal").toFile();
+
+        StoreIndex plain = newStores(numStores, null);
+        double plainRate = purchases(plain, null, threads, perThread);
+
+        WriteAheadLog journal = WriteAheadLog.open(dir, new StoreIndex());
+        StoreIndex logged = newStores(numStores, journal);
+        double loggedRate = purchases(logged, journal, threads, perThread);
+
+        // A migration that copied a store and stopped before "dropStores", as the worker's "migrateStores" logs it
+        Store moved = logged.get("Store 0");
+        journal.mutate(() -> {
+            moved.setMovedAway(true);
+            journal.append("movedAway", moved.getStoreName());
+            return null;
+        });
+
+        // Restart from the log alone, without closing it first, as after a crash
+        long start = System.currentTimeMillis();
+        StoreIndex recovered = new StoreIndex();
+        WriteAheadLog.open(dir, recovered).close();
+        long fromLogMs = System.currentTimeMillis() - start;
+        boolean sameFromLog = same(logged, recovered);
+
+        // That restart wrote a snapshot, so this one reads the snapshot only
+        start = System.currentTimeMillis();
+        StoreIndex fromSnapshot = new StoreIndex();
+        WriteAheadLog.open(dir, fromSnapshot).close();
+        long fromSnapshotMs = System.currentTimeMillis() - start;
+        boolean sameFromSnapshot = same(logged, fromSnapshot);
+
+        System.out.println(threads + " threads x " + perThread + " purchases over " + numStores + " stores, "
+                + (System.getProperty("foodapp.walSync") == null ? "flushed on every commit" : "walSync=" + System.getProperty("foodapp.walSync")) + ":");
+        System.out.println("=====================================");
+        System.out.printf("no log:     %10.0f purchases/s%n", plainRate);
+        System.out.printf("with log:   %10.0f purchases/s%n", loggedRate);
+        System.out.printf("recovery from the log:      %6d ms, same stores: %s%n", fromLogMs, sameFromLog);
+        System.out.printf("recovery from the snapshot: %6d ms, same stores: %s%n", fromSnapshotMs, sameFromSnapshot);
+        System.out.println("restock logged after the sales it allowed, stock 0 -> " + replayOutOfOrder() + " (expected 0)");
+
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static StoreIndex newStores(int numStores, WriteAheadLog journal) {
+        StoreIndex stores = new StoreIndex();
+        for (int s = 0; s < numStores; s++) {
+            ArrayList<Product> products = new ArrayList<>();
+            for (int p = 0; p < 10; p++) {
+                products.add(new Product("product " + p, "food", 20, 2 + p));
+            }
+            Store store = new Store("Store " + s, 37.9 + s * 0.001, 23.7, "pizzeria", 4, 10, "logo.png", products);
+            if (journal == null) {
+                stores.add(store);
+            } else {
+                journal.mutate(() -> {
+                    journal.append("manager", store);
+                    stores.add(store);
+                    return null;
+                });
+            }
+        }
+        return stores;
+    }
+
+    // Same steps as the worker's "purchase" and "AmountInc" roles. Every fourth thread restocks.
+    private static double purchases(StoreIndex stores, WriteAheadLog journal, int threads, int perThread) throws InterruptedException {
+        AtomicInteger done = new AtomicInteger();
+        ArrayList<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < perThread; i++) {
+                    Store store = stores.get("Store " + random.nextInt(stores.size()));
+                    ArrayList<Product> items = new ArrayList<>();
+                    items.add(new Product("product " + random.nextInt(10), null, 1 + random.nextInt(3), 0));
+                    Purchase purchase = new Purchase("customer " + seed, "c@x", items);
+                    Runnable buy = () -> {
+                        store.getStockLock().readLock().lock();
+                        try {
+                            if (seed % 4 == 3) {
+                                Product product = store.getProduct(items.get(0).getName());
+                                product.addQuantity(items.get(0).getQuantity());
+                                if (journal != null) {
+                                    journal.append("AmountInc", store.getStoreName(), product.getName(), items.get(0).getQuantity());
+                                }
+                                return;
+                            }
+                            StockReservation reservation = StockReservation.reserve(store, items);
+                            if (reservation.isReserved()) {
+                                reservation.commit(items);
+                                purchase.setPurchasedAt(System.currentTimeMillis());
+                                store.getLock().writeLock().lock();
+                                try {
+                                    store.addPurchase(purchase);
+                                    if (journal != null) {
+                                        journal.append("purchase", store.getStoreName(), purchase);
+                                    }
+                                } finally {
+                                    store.getLock().writeLock().unlock();
+                                }
+                                done.incrementAndGet();
+                            }
+                        } finally {
+                            store.getStockLock().readLock().unlock();
+                        }
+                    };
+                    if (journal == null) {
+                        buy.run();
+                    } else {
+                        journal.mutate(() -> {
+                            buy.run();
+                            return null;
+                        });
+                    }
+                }
+            });
+            workers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        return done.get() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    // Stock 0, then +5, -3 and -2 happen in that order but the +5 reaches the log last
+    private static int replayOutOfOrder() {
+        StoreIndex stores = new StoreIndex();
+        ArrayList<Product> products = new ArrayList<>();
+        products.add(new Product("product", "food", 0, 2));
+        stores.add(new Store("Store", 37.9, 23.7, "pizzeria", 4, 10, "logo.png", products));
+        WriteAheadLog.replay(stores, new WorkerRequest(0, "AmountDec", new Object[]{"Store", "product", 3}));
+        WriteAheadLog.replay(stores, new WorkerRequest(0, "AmountDec", new Object[]{"Store", "product", 2}));
+        WriteAheadLog.replay(stores, new WorkerRequest(0, "AmountInc", new Object[]{"Store", "product", 5}));
+        return stores.get("Store").getProduct("product").getQuantity();
+    }
+
+    private static boolean same(StoreIndex expected, StoreIndex actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (Store store : expected.values()) {
+            Store other = actual.get(store.getStoreName());
+            if (other == null || other.isMovedAway() != store.isMovedAway() || other.getPurchases().size() != store.getPurchases().size()
+                    || other.getSales().getUnits() != store.getSales().getUnits()) {
+                return false;
+            }
+            for (Product product : store.getProducts()) {
+                Product copy = other.getProduct(product.getName());
+                if (copy == null || copy.getQuantity() != product.getQuantity()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
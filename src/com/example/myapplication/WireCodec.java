@@ -0,0 +1,540 @@
+package com.example.myapplication;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Binary encoding of the messages between the Master, the Workers and the Reducer.
+//
+// Frame:    int length of the rest | byte kind | long request id | body
+// Request:  byte opcode | [string role, only for Opcode.CUSTOM] | int count | values
+// Response: int count | values
+//
+// Every value starts with a one byte tag. Store, StoreSummary, Product, Purchase and MapReduceRequest
+// are written field by field, lists and maps element by element. Any other Serializable
+// value falls back to Java serialization inside the frame.
+//
+// A list of StoreSummary (the "client" and "filter" replies) gets its own tag: the summaries follow
+// without tags, counts are varints and the strings go through a dictionary built while writing,
+// so a category, price category or logo path that repeats costs one byte after its first use.
+public class WireCodec {
+    // Largest frame a reader accepts, override with -Dfoodapp.maxFrameBytes=N
+    public static final int MAX_FRAME_BYTES = Integer.getInteger("foodapp.maxFrameBytes", 64 * 1024 * 1024);
+
+    static final byte REQUEST = 1;
+    static final byte RESPONSE = 2;
+    static final byte ERROR = 3; // a response without values: string error
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte LIST = 6;
+    private static final byte MAP = 7;
+    private static final byte STORE = 8;
+    private static final byte PRODUCT = 9;
+    private static final byte PURCHASE = 10;
+    private static final byte MAP_REDUCE_REQUEST = 11;
+    private static final byte JAVA = 12;
+    private static final byte STORE_SUMMARY = 13;
+    private static final byte SUMMARY_LIST = 14;
+
+    private WireCodec() {
+    }
+
+    // Encodes a WorkerRequest or a WorkerResponse into a frame, length prefix included
+    public static byte[] encodeFrame(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, filled in below
+
+        if (message instanceof WorkerRequest) {
+            WorkerRequest request = (WorkerRequest) message;
+            out.writeByte(REQUEST);
+            out.writeLong(request.getRequestId());
+            Opcode opcode = Opcode.forRole(request.getRole());
+            out.writeByte(opcode.getCode());
+            if (opcode == Opcode.CUSTOM) {
+                writeString(out, request.getRole());
+            }
+            writeValues(out, request.getArgs());
+        } else if (message instanceof WorkerResponse) {
+            WorkerResponse response = (WorkerResponse) message;
+            out.writeByte(response.getError() != null ? ERROR : RESPONSE);
+            out.writeLong(response.getRequestId());
+            if (response.getError() != null) {
+                writeString(out, response.getError());
+            } else {
+                writeValues(out, response.getValues());
+            }
+        } else {
+            throw new IOException("Cannot frame " + (message == null ? "null" : message.getClass().getName()));
+        }
+
+        out.flush();
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    // Reads one frame from the stream and returns the WorkerRequest or WorkerResponse in it
+    public static Object readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("Frame of " + length + " bytes, the limit is " + MAX_FRAME_BYTES);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decodeBody(body);
+    }
+
+    // Decodes a whole frame produced by encodeFrame
+    public static Object decodeFrame(byte[] frame) throws IOException {
+        return readFrame(new DataInputStream(new ByteArrayInputStream(frame)));
+    }
+
+    private static Object decodeBody(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte kind = in.readByte();
+        long requestId = in.readLong();
+
+        if (kind == REQUEST) {
+            byte code = in.readByte();
+            Opcode opcode = Opcode.forCode(code);
+            if (opcode == null) {
+                throw new StreamCorruptedException("Unknown opcode " + code);
+            }
+            String role = opcode == Opcode.CUSTOM ? readString(in) : opcode.getRole();
+            return new WorkerRequest(requestId, role, readValues(in));
+        } else if (kind == RESPONSE) {
+            return new WorkerResponse(requestId, readValues(in));
+        } else if (kind == ERROR) {
+            return WorkerResponse.failed(requestId, readString(in));
+        }
+        throw new StreamCorruptedException("Unknown frame kind " + kind);
+    }
+
+    private static void writeValues(DataOutputStream out, Object[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.length);
+        for (Object value : values) {
+            writeValue(out, value);
+        }
+    }
+
+    private static Object[] readValues(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = readValue(in);
+        }
+        return values;
+    }
+
+    public static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Store) {
+            out.writeByte(STORE);
+            writeStore(out, (Store) value);
+        } else if (value instanceof StoreSummary) {
+            out.writeByte(STORE_SUMMARY);
+            writeStoreSummary(out, (StoreSummary) value);
+        } else if (value instanceof Product) {
+            out.writeByte(PRODUCT);
+            writeProduct(out, (Product) value);
+        } else if (value instanceof Purchase) {
+            out.writeByte(PURCHASE);
+            writePurchase(out, (Purchase) value);
+        } else if (value instanceof MapReduceRequest) {
+            out.writeByte(MAP_REDUCE_REQUEST);
+            writeMapReduceRequest(out, (MapReduceRequest) value);
+        } else if (value instanceof List && isSummaryList((List<?>) value)) {
+            out.writeByte(SUMMARY_LIST);
+            writeSummaryList(out, (List<?>) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(value);
+            }
+            out.writeByte(JAVA);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    public static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STORE:
+                return readStore(in);
+            case STORE_SUMMARY:
+                return readStoreSummary(in);
+            case PRODUCT:
+                return readProduct(in);
+            case PURCHASE:
+                return readPurchase(in);
+            case MAP_REDUCE_REQUEST:
+                return readMapReduceRequest(in);
+            case SUMMARY_LIST:
+                return readSummaryList(in);
+            case LIST: {
+                int size = in.readInt();
+                ArrayList<Object> list = new ArrayList<>(Math.min(size, 1024));
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case MAP: {
+                int size = in.readInt();
+                HashMap<Object, Object> map = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    Object key = readValue(in);
+                    map.put(key, readValue(in));
+                }
+                return map;
+            }
+            case JAVA: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return objects.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            }
+            default:
+                throw new StreamCorruptedException("Unknown value tag " + tag);
+        }
+    }
+
+    private static void writeStore(DataOutputStream out, Store store) throws IOException {
+        writeString(out, store.getStoreName());
+        out.writeDouble(store.getLatitude());
+        out.writeDouble(store.getLongitude());
+        writeString(out, store.getCategory());
+        out.writeDouble(store.getStars());
+        out.writeInt(store.getNoOfReviews());
+        writeString(out, store.getStoreLogoPath());
+
+        ArrayList<Product> products = store.getProducts();
+        out.writeInt(products.size());
+        for (Product product : products) {
+            writeProduct(out, product);
+        }
+        store.getPurchases().writeColumns(out);
+    }
+
+    private static Store readStore(DataInputStream in) throws IOException {
+        String storeName = readString(in);
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        String category = readString(in);
+        double stars = in.readDouble();
+        int noOfReviews = in.readInt();
+        String storeLogoPath = readString(in);
+
+        int productCount = in.readInt();
+        ArrayList<Product> products = new ArrayList<>(productCount);
+        for (int i = 0; i < productCount; i++) {
+            products.add(readProduct(in));
+        }
+        Store store = new Store(storeName, latitude, longitude, category, stars, noOfReviews, storeLogoPath, products);
+
+        store.setPurchases(PurchaseLog.readColumns(in));
+        return store;
+    }
+
+    private static void writeStoreSummary(DataOutputStream out, StoreSummary summary) throws IOException {
+        writeString(out, summary.getStoreName());
+        out.writeDouble(summary.getLatitude());
+        out.writeDouble(summary.getLongitude());
+        writeString(out, summary.getCategory());
+        out.writeDouble(summary.getStars());
+        out.writeInt(summary.getNoOfReviews());
+        writeString(out, summary.getPriceCategory());
+        writeString(out, summary.getStoreLogoPath());
+        out.writeDouble(summary.getDistanceKm());
+    }
+
+    private static StoreSummary readStoreSummary(DataInputStream in) throws IOException {
+        String storeName = readString(in);
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        String category = readString(in);
+        double stars = in.readDouble();
+        int noOfReviews = in.readInt();
+        String priceCategory = readString(in);
+        String storeLogoPath = readString(in);
+        double distanceKm = in.readDouble();
+        return new StoreSummary(storeName, latitude, longitude, category, stars, noOfReviews, priceCategory, storeLogoPath, distanceKm);
+    }
+
+    private static boolean isSummaryList(List<?> list) {
+        if (list.isEmpty()) {
+            return false;
+        }
+        for (Object element : list) {
+            if (!(element instanceof StoreSummary)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeSummaryList(DataOutputStream out, List<?> list) throws IOException {
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        writeVarint(out, list.size());
+        for (Object element : list) {
+            StoreSummary summary = (StoreSummary) element;
+            writeDictionaryString(out, dictionary, summary.getStoreName());
+            out.writeDouble(summary.getLatitude());
+            out.writeDouble(summary.getLongitude());
+            writeDictionaryString(out, dictionary, summary.getCategory());
+            out.writeDouble(summary.getStars());
+            writeVarint(out, summary.getNoOfReviews());
+            writeDictionaryString(out, dictionary, summary.getPriceCategory());
+            writeDictionaryString(out, dictionary, summary.getStoreLogoPath());
+            out.writeDouble(summary.getDistanceKm());
+        }
+    }
+
+    private static ArrayList<Object> readSummaryList(DataInputStream in) throws IOException {
+        ArrayList<String> dictionary = new ArrayList<>();
+        int size = readVarint(in);
+        ArrayList<Object> list = new ArrayList<>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++) {
+            String storeName = readDictionaryString(in, dictionary);
+            double latitude = in.readDouble();
+            double longitude = in.readDouble();
+            String category = readDictionaryString(in, dictionary);
+            double stars = in.readDouble();
+            int noOfReviews = readVarint(in);
+            String priceCategory = readDictionaryString(in, dictionary);
+            String storeLogoPath = readDictionaryString(in, dictionary);
+            double distanceKm = in.readDouble();
+            list.add(new StoreSummary(storeName, latitude, longitude, category, stars, noOfReviews, priceCategory, storeLogoPath, distanceKm));
+        }
+        return list;
+    }
+
+    // Varint code: 0 for null, 1 for a new string (varint length and UTF-8 follow, and it joins
+    // the dictionary), n >= 2 for the dictionary entry n - 2
+    private static void writeDictionaryString(DataOutputStream out, Map<String, Integer> dictionary, String value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            writeVarint(out, id + 2);
+            return;
+        }
+        dictionary.put(value, dictionary.size());
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(1);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readDictionaryString(DataInputStream in, List<String> dictionary) throws IOException {
+        int code = readVarint(in);
+        if (code == 0) {
+            return null;
+        }
+        if (code == 1) {
+            byte[] bytes = new byte[readVarint(in)];
+            in.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            dictionary.add(value);
+            return value;
+        }
+        if (code - 2 >= dictionary.size()) {
+            throw new StreamCorruptedException("Unknown dictionary entry " + (code - 2));
+        }
+        return dictionary.get(code - 2);
+    }
+
+    // Seven bits per byte, low bits first, high bit set while more bytes follow. Only for values >= 0
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Varint longer than 5 bytes");
+    }
+
+    private static void writeProduct(DataOutputStream out, Product product) throws IOException {
+        writeString(out, product.getName());
+        writeString(out, product.getCategory());
+        out.writeInt(product.getQuantity());
+        out.writeDouble(product.getPrice());
+        writeString(out, product.getStatus());
+    }
+
+    private static Product readProduct(DataInputStream in) throws IOException {
+        String name = readString(in);
+        String category = readString(in);
+        int quantity = in.readInt();
+        double price = in.readDouble();
+        Product product = new Product(name, category, quantity, price);
+        product.setStatus(readString(in));
+        return product;
+    }
+
+    private static void writePurchase(DataOutputStream out, Purchase purchase) throws IOException {
+        writeString(out, purchase.getCustomerName());
+        writeString(out, purchase.getCustomerEmail());
+        ArrayList<Product> products = purchase.getPurchasedProducts();
+        out.writeInt(products == null ? -1 : products.size());
+        if (products != null) {
+            for (Product product : products) {
+                writeProduct(out, product);
+            }
+        }
+        out.writeDouble(purchase.getTotalPrice());
+        out.writeLong(purchase.getPurchasedAt());
+    }
+
+    private static Purchase readPurchase(DataInputStream in) throws IOException {
+        String customerName = readString(in);
+        String customerEmail = readString(in);
+        int count = in.readInt();
+        ArrayList<Product> products = count < 0 ? null : new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(readProduct(in));
+        }
+        Purchase purchase = new Purchase(customerName, customerEmail, products == null ? new ArrayList<>() : products);
+        purchase.setPurchasedProducts(products);
+        purchase.setTotalPrice(in.readDouble()); // as sent, not recomputed from the current prices
+        purchase.setPurchasedAt(in.readLong());
+        return purchase;
+    }
+
+    private static void writeMapReduceRequest(DataOutputStream out, MapReduceRequest request) throws IOException {
+        out.writeDouble(request.getClientLatitude());
+        out.writeDouble(request.getClientLongitude());
+        List<String> categories = request.getFoodCategories();
+        out.writeInt(categories == null ? -1 : categories.size());
+        if (categories != null) {
+            for (String category : categories) {
+                writeString(out, category);
+            }
+        }
+        out.writeDouble(request.getMinStars());
+        writeString(out, request.getPriceCategory());
+        out.writeDouble(request.getRadius());
+        writeString(out, request.getRequestId());
+        out.writeInt(request.getLimit());
+        writeString(out, request.getSortBy());
+        writeString(out, request.getCursor());
+    }
+
+    private static MapReduceRequest readMapReduceRequest(DataInputStream in) throws IOException {
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        int count = in.readInt();
+        ArrayList<String> categories = count < 0 ? null : new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            categories.add(readString(in));
+        }
+        double minStars = in.readDouble();
+        String priceCategory = readString(in);
+        double radius = in.readDouble();
+        String requestId = readString(in);
+        MapReduceRequest request = new MapReduceRequest(latitude, longitude, categories, minStars, priceCategory, radius, requestId);
+        request.setLimit(in.readInt());
+        request.setSortBy(readString(in));
+        request.setCursor(readString(in));
+        return request;
+    }
+
+    // Length in bytes (-1 for null) followed by UTF-8, so strings are not limited to 64 KB like writeUTF
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,29 +1,62 @@
 package com.example.myapplication;
 import java.io.*;
 import java.net.*;
-import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Worker {
+    // Where workers keep their stores on disk, one directory per port. Nothing is kept without it.
+    static final String DATA_DIR = System.getProperty("foodapp.dataDir");
+    // Time between snapshots of the stores, override with -Dfoodapp.snapshotMs=N
+    static final long SNAPSHOT_MS = Long.getLong("foodapp.snapshotMs", 60_000L);
 
     public static void main(String[] args) throws UnknownHostException{
         // Read the port number from command-line arguments
         int port = Integer.parseInt(args[0]);
 
-        // Shared list to store all Store objects assigned to this Worker
-        ArrayList<Store> stores = new ArrayList<>();
+        // Shared index of all Store objects assigned to this Worker, by store name
+        StoreIndex stores = new StoreIndex();
 
-        // Lock object used for synchronizing access to the stores list
-        Object lock = new Object();
+        // Threads that run the requests arriving on the Master's long-lived connections
+        ExecutorService requestPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+
+        // Connections to the Reducer, shared by all requests that stream search results
+        ReducerLink reducers = new ReducerLink();
+
+        // Load the stores this worker had before it stopped, and log every change from now on
+        WriteAheadLog journal = null;
+        if (DATA_DIR != null) {
+            try {
+                journal = WriteAheadLog.open(new File(DATA_DIR, "worker-" + port), stores);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            WriteAheadLog log = journal;
+            ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor();
+            snapshots.scheduleWithFixedDelay(() -> {
+                try {
+                    log.snapshot();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, SNAPSHOT_MS, SNAPSHOT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        // The replicas the Master attaches to this worker, if it makes it a primary
+        ReplicaFeed replicas = new ReplicaFeed();
 
         // Start the Worker server on the given port
-        new Worker().openServer(port, stores, lock);
+        new Worker().openServer(port, stores, requestPool, reducers, journal, replicas);
     }
 
     ServerSocket providerSocket;
     Socket connection = null;
 
     // Opens a server socket for this worker to handle incoming connections
-    void openServer(int port, ArrayList<Store> stores, Object lock) {
+    void openServer(int port, StoreIndex stores, ExecutorService requestPool, ReducerLink reducers, WriteAheadLog journal, ReplicaFeed replicas) {
         try {
             // Listen on the specified port with a backlog of 10 connections
             providerSocket = new ServerSocket(port, 10);
@@ -33,7 +66,7 @@ public class Worker {
                 connection = providerSocket.accept();
 
                 // Create and start a new thread to handle the connection
-                Thread t = new WorkerActions(connection, stores, lock);
+                Thread t = new WorkerActions(connection, stores, requestPool, reducers, journal, replicas);
                 t.start();
 
             }
@@ -45,6 +78,10 @@ public class Worker {
             } catch (IOException ioException) {
                 ioException.printStackTrace();
             }
+            requestPool.shutdown();
+            if (journal != null) {
+                journal.close();
+            }
         }
     }
 
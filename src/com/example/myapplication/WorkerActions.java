@@ -1,24 +1,28 @@
 package com.example.myapplication;
-import java.awt.print.Book;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 public class
 WorkerActions extends Thread {
-    ObjectInputStream in;
-    ObjectOutputStream out;
-    private final ArrayList<Store> stores;
-    private final Object lock;
+    MessageStream stream;
+    private final StoreIndex stores;
     private final Socket connection;
+    private final ExecutorService requestPool; // Runs the requests that arrive on this connection
+    private final ReducerLink reducers; // Where search results are streamed
+    private final WriteAheadLog journal; // Where changes are logged, null if the worker keeps nothing on disk
+    private final ReplicaFeed replicas; // Where changes are sent when this worker is a primary
 
-    public WorkerActions(Socket connection, ArrayList<Store> stores, Object lock) {
+    public WorkerActions(Socket connection, StoreIndex stores, ExecutorService requestPool, ReducerLink reducers, WriteAheadLog journal, ReplicaFeed replicas) {
         this.connection = connection;
         this.stores = stores;
-        this.lock = lock;
+        this.requestPool = requestPool;
+        this.reducers = reducers;
+        this.journal = journal;
+        this.replicas = replicas;
         try {
-            out = new ObjectOutputStream(connection.getOutputStream());
-            in = new ObjectInputStream(connection.getInputStream());
+            stream = MessageStream.accept(connection); // binary frames or Java serialization, as the Master chose
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -26,523 +30,715 @@ WorkerActions extends Thread {
 
     public void run() {
         try {
-            String role = (String) in.readObject();
-
-            if (role.equals("manager")) {
+            // The Master keeps this connection open and sends many requests over it
+            while (true) {
                 // Receive from master
-                Store s = (Store) in.readObject();
+                WorkerRequest request = (WorkerRequest) stream.readMessage();
 
-                stores.add(s);
+                if (request.getRole().equals("replicate")) {
+                    // Changes from the primary are applied one batch at a time, in the order they were sent
+                    reply(process(request));
+                    continue;
+                }
 
-                // Send to master
-                out.writeObject("Store added successfully");
-                out.flush();
+                requestPool.execute(() -> reply(process(request)));
+            }
 
-            }else if (role.equals("findStore")) {
-                // Receive from master
-                String storeName = (String) in.readObject();
+        } catch (EOFException | SocketException e) {
+            // The Master closed the connection
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (connection != null && !connection.isClosed()) connection.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                boolean storeFound = false;
+    // Responses of concurrent requests share the same stream, which writes them one at a time
+    private void reply(WorkerResponse response) {
+        try {
+            // Send to master
+            stream.writeMessage(response);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            storeFound = true;
-                            break; // exit after store is found
-                        }
-                    }
-                }
+    // Sends the stores a search found straight to the Reducer named in the request, so the Master
+    // does not have to hold them. They go back to the Master if the Reducer cannot be reached.
+    private Object[] streamToReducer(Object[] args, String clientId, MapReduceRequest request, ArrayList<StoreSummary> result) {
+        if (args.length < 5) {
+            return new Object[]{clientId, result}; // the Master merges the results itself
+        }
+        long reduceId = (Long) args[2];
+        try {
+            reducers.send((String) args[3], (Integer) args[4], new WorkerRequest(reduceId, "partialStores", new Object[]{clientId, result, request}));
+            return new Object[]{clientId, null};
+        } catch (IOException e) {
+            System.out.println("[Worker] Could not reach the reducer, returning " + result.size() + " stores to the master: " + e);
+            return new Object[]{clientId, result};
+        }
+    }
+
+    private WorkerResponse process(WorkerRequest request) {
+        try {
+            Object[] values;
+            if (WriteAheadLog.isMutation(request.getRole())) {
+                // Answered once the change is logged on disk, if the worker keeps a log
+                values = replicas.mutate(() -> journal != null
+                        ? journal.mutate(() -> handle(request.getRole(), request.getArgs()))
+                        : handle(request.getRole(), request.getArgs()));
+            } else {
+                values = handle(request.getRole(), request.getArgs());
+            }
+            return new WorkerResponse(request.getRequestId(), values);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            // The Master fails this request and leaves the worker out of the merged results
+            return WorkerResponse.failed(request.getRequestId(), request.getRole() + ": " + e);
+        }
+    }
 
-                if (!storeFound) {
-                    storeName = null;
+    // Appends a change to the write-ahead log, if the worker keeps one, and queues it for the replicas
+    private void log(String role, Object... args) {
+        if (journal != null) {
+            journal.append(role, args);
+        }
+        replicas.append(role, args);
+    }
+
+    // Runs one request and returns the objects to send back to the master
+    private Object[] handle(String role, Object[] args) {
+        if (role.equals("manager")) {
+            // Receive from master
+            Store s = (Store) args[0];
+
+            // New stores are checked, logged and added by one request at a time, so a store
+            // that two requests add at once is logged only by the one that adds it
+            boolean added = false;
+            synchronized (stores) {
+                if (stores.get(s.getStoreName()) == null) {
+                    log("manager", s); // before anyone can buy from it
+                    added = stores.add(s);
                 }
+            }
 
-                // Send to master
-                out.writeObject(storeName);
-                out.flush();
+            // Send to master
+            if (added) {
+                return new Object[]{"Store added successfully"};
+            } else {
+                return new Object[]{"Store already exists"};
+            }
 
-            }else if (role.equals("findProduct")) {
-                // Receive from master
-                String storeName = (String) in.readObject();
-                String ProductName = (String) in.readObject();
-
-                boolean productFound = false;
-
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            for (Product pro : store.getProducts()) {
-                                if (pro.getName().equalsIgnoreCase(ProductName)) {
-                                    productFound = true;
-                                    break; // exit after product is found
-                                }
-                            }
-                        }
+        }else if (role.equals("addStores")) {
+            // Receive from master a batch of stores this worker owns
+            ArrayList<Store> batch = (ArrayList<Store>) args[0];
+
+            // Only the stores that are new are logged, each name once, under the same lock as "manager"
+            ArrayList<Store> newStores = new ArrayList<>();
+            boolean[] added = new boolean[0];
+            synchronized (stores) {
+                HashSet<String> names = new HashSet<>();
+                for (Store s : batch) {
+                    if (stores.get(s.getStoreName()) == null && names.add(StoreIndex.key(s.getStoreName()))) {
+                        newStores.add(s);
                     }
                 }
+                if (!newStores.isEmpty()) {
+                    log("addStores", newStores); // before anyone can buy from them
+                    added = stores.addAll(newStores);
+                }
+            }
 
-                // Send to master
-                if (productFound) {
-                    out.writeObject("exists");
-                }else{
-                    out.writeObject("doesnt exist");
+            // One result per store of the batch, in its order
+            ArrayList<String> results = new ArrayList<>(batch.size());
+            int next = 0;
+            for (Store s : batch) {
+                boolean isNew = next < newStores.size() && newStores.get(next) == s;
+                if (isNew && added[next++]) {
+                    results.add("Store added successfully");
+                } else {
+                    results.add("Store already exists");
                 }
-                out.flush();
+            }
 
+            // Send to master
+            return new Object[]{results};
 
-            }else if (role.equals("findProduct2")) {
-                // Receive from master
-                String storeName = (String) in.readObject();
-                String ProductName = (String) in.readObject();
-
-                boolean productFound = false;
-
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            for (Product pro : store.getProducts()) {
-                                if (pro.getName().equalsIgnoreCase(ProductName)) {
-                                    productFound = true;
-                                    // Send to master
-                                    if (pro.getQuantity() == -1){
-                                        out.writeObject("hidden");
-                                        out.flush();
-                                    }else {
-                                        out.writeObject(ProductName);
-                                        out.flush();
-                                    }
-                                    break; // exit after product is found
-                                }
-                            }
-                        }
-                    }
-                }
+        }else if (role.equals("findStore")) {
+            // Receive from master
+            String storeName = (String) args[0];
 
-                if (!productFound) {
-                    ProductName = null;
-                    out.writeObject(ProductName);
-                    out.flush();
-                }
+            boolean storeFound = stores.get(storeName) != null;
 
-            }else if (role.equals("AmountInc")) {
-                // Receive from master
-                String storeName = (String) in.readObject();
-                String ProductName = (String) in.readObject();
-                int amount = (int) in.readInt();
-
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            for (Product pro : store.getProducts()) {
-                                if (pro.getName().equalsIgnoreCase(ProductName)) {
-                                    pro.setQuantity(amount + pro.getQuantity());
-                                    break; // exit after quantity is changed
-                                }
-                            }
-                        }
-                    }
-                }
+            if (!storeFound) {
+                storeName = null;
+            }
 
-                // Send to master
-                out.writeObject("Amount changed successfully");
-                out.flush();
+            // Send to master
+            return new Object[]{storeName};
 
-            }else if (role.equals("NewProduct")) {
-                // Receive from master
-                String storeName = (String) in.readObject();
-                Product pro = (Product) in.readObject();
+        }else if (role.equals("findProduct")) {
+            // Receive from master
+            String storeName = (String) args[0];
+            String ProductName = (String) args[1];
 
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            store.getProducts().add(pro);
-                            System.out.println(store.getProducts());
-                            break; // exit after product is added
+            Store store = stores.get(storeName);
+            boolean productFound = store != null && store.getProduct(ProductName) != null;
 
-                        }
+            // Send to master
+            if (productFound) {
+                return new Object[]{"exists"};
+            }else{
+                return new Object[]{"doesnt exist"};
+            }
+
+
+        }else if (role.equals("findProduct2")) {
+            // Receive from master
+            String storeName = (String) args[0];
+            String ProductName = (String) args[1];
+
+            String response = null;
+
+            Store store = stores.get(storeName);
+            if (store != null) {
+                Product pro = store.getProduct(ProductName);
+                if (pro != null) {
+                    if (pro.getQuantity() == -1){
+                        response = "hidden";
+                    }else {
+                        response = ProductName;
                     }
                 }
+            }
 
-                // Send to master
-                out.writeObject("Product added successfully");
-                out.flush();
+            // Send to master
+            return new Object[]{response};
+
+        }else if (role.equals("AmountInc")) {
+            // Receive from master
+            String storeName = (String) args[0];
+            String ProductName = (String) args[1];
+            int amount = (int) args[2];
+
+            Store store = stores.get(storeName);
+            if (store != null) {
+                Product pro = store.getProduct(ProductName);
+                if (pro != null) {
+                    store.getStockLock().readLock().lock();
+                    try {
+                        pro.addQuantity(amount);
+                        log("AmountInc", storeName, ProductName, amount);
+                    } finally {
+                        store.getStockLock().readLock().unlock();
+                    }
+                }
+            }
 
-            }else if (role.equals("remove")) {
-                // Receive from master
-                String storeName = (String) in.readObject();
-                String pro = (String) in.readObject();
-
-                boolean prodFound = false;
-
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            prodFound = true;
-                            for (Product prod : store.getProducts()) {
-                                if (prod.getName().equalsIgnoreCase(pro)) {
-                                    prod.setQuantity(-1);
-                                    prod.setStatus("hidden");
-                                    break; // exit after quantity is changed
-                                }
-                            }
+            // Send to master
+            return new Object[]{"Amount changed successfully"};
 
-                        }
+        }else if (role.equals("NewProduct")) {
+            // Receive from master
+            String storeName = (String) args[0];
+            Product pro = (Product) args[1];
+
+            boolean added = false;
+
+            Store store = stores.get(storeName);
+            if (store != null) {
+                store.getLock().writeLock().lock();
+                try {
+                    if (store.getProduct(pro.getName()) == null) {
+                        log("NewProduct", storeName, pro); // before anyone can buy it
+                        added = store.addProduct(pro);
                     }
+                    stores.update(store); // the price tier may have changed
+                    System.out.println(store.getProducts());
+                } finally {
+                    store.getLock().writeLock().unlock();
                 }
+            }
 
-                // Send to master
-                if (prodFound) {
-                    out.writeObject("Product removed or updated successfully.");
-                } else {
-                    out.writeObject("Product not found.");
-                }
-                out.flush();
+            // Send to master
+            if (added) {
+                return new Object[]{"Product added successfully"};
+            } else {
+                return new Object[]{"Product was not added"};
+            }
 
-            }else if (role.equals("AmountDec")) {
-                // Receive from master
-                String storeName = (String) in.readObject();
-                String ProductName = (String) in.readObject();
-                int amount = (int) in.readInt();
-
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            for (Product pro : store.getProducts()) {
-                                if (pro.getName().equalsIgnoreCase(ProductName)) {
-                                    if ((pro.getQuantity() - amount)>=0) {
-                                        pro.setQuantity(pro.getQuantity() - amount);
-                                        out.writeObject("Amount changed successfully");
-                                        out.flush();
-                                    }else {
-                                        out.writeObject("Amount is greater than the quantity");
-                                        out.flush();
-                                    }
-                                }
-                            }
-                        }
+        }else if (role.equals("remove")) {
+            // Receive from master
+            String storeName = (String) args[0];
+            String pro = (String) args[1];
+
+            Store store = stores.get(storeName);
+            boolean prodFound = store != null;
+
+            if (store != null) {
+                store.getStockLock().writeLock().lock(); // waits for stock changes that are being logged
+                store.getLock().writeLock().lock();
+                try {
+                    if (store.hideProduct(pro)) {
+                        log("remove", storeName, pro);
+                        stores.update(store); // the price tier may have changed
                     }
+                } finally {
+                    store.getLock().writeLock().unlock();
+                    store.getStockLock().writeLock().unlock();
                 }
+            }
 
+            // Send to master
+            if (prodFound) {
+                return new Object[]{"Product removed or updated successfully."};
+            } else {
+                return new Object[]{"Product not found."};
+            }
 
-            }else if (role.equals("storeType")) {
-                // Receive from master
-                String requestedType = (String) in.readObject(); // e.g., "pizzeria"
-
-                Map<String, Integer> result = new HashMap<>();
-
-                synchronized (lock) {
-                    int totalSold = 0;
-                    for (Store store : stores) {
-                        if (store.getCategory().equalsIgnoreCase(requestedType)) {
-                            for (Purchase purchase : store.getPurchases()) {
-                                for (Product p : purchase.getPurchasedProducts()) {
-                                    totalSold += p.getQuantity();  // Sum all quantities
-                                }
-                            }
-                            result.put(store.getStoreName(), totalSold);
+        }else if (role.equals("AmountDec")) {
+            // Receive from master
+            String storeName = (String) args[0];
+            String ProductName = (String) args[1];
+            int amount = (int) args[2];
+
+            String response = "Product not found.";
+
+            Store store = stores.get(storeName);
+            if (store != null) {
+                Product pro = store.getProduct(ProductName);
+                if (pro != null) {
+                    store.getStockLock().readLock().lock();
+                    try {
+                        if (pro.tryReserve(amount)) {
+                            log("AmountDec", storeName, ProductName, amount);
+                            response = "Amount changed successfully";
+                        }else {
+                            response = "Amount is greater than the quantity";
                         }
+                    } finally {
+                        store.getStockLock().readLock().unlock();
                     }
                 }
+            }
 
-                // Send to master
-                out.writeObject(result);
-                out.flush();
+            // Send to master
+            return new Object[]{response};
 
 
-            }else if (role.equals("productCategory")) {
-                // Receive from master
-                String requestedCategory = (String) in.readObject(); // e.g., "pizza"
-
-                Map<String, Integer> result = new HashMap<>();
-
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        int totalCategorySales = 0;
-                        for (Purchase purchase : store.getPurchases()) {
-                            for (Product product : purchase.getPurchasedProducts()) {
-                                if (product.getCategory().equalsIgnoreCase(requestedCategory)) {
-                                    totalCategorySales += product.getQuantity();
-                                }
-                            }
-                        }
+        }else if (role.equals("storeType")) {
+            // Receive from master
+            String requestedType = (String) args[0]; // e.g., "pizzeria"
 
-                        if (totalCategorySales > 0) {
-                            result.put(store.getStoreName(), totalCategorySales);
-                        }
-                    }
+            Map<String, Integer> result = new HashMap<>();
+
+            // Each store reports its own total, read from its counters
+            for (Store store : stores.values()) {
+                if (store.isMovedAway()) continue; // its new worker answers for it
+
+                if (store.getCategory().equalsIgnoreCase(requestedType)) {
+                    result.put(store.getStoreName(), (int) store.getSales().getUnits());
                 }
+            }
 
-                // Send to master
-                out.writeObject(result);
-                out.flush();
+            // Send to master
+            return new Object[]{result};
 
-            }else if (role.equals("client")) {
-                // Receive from master
-                String clientId = (String) in.readObject();
 
-                MapReduceRequest request = (MapReduceRequest) in.readObject();
+        }else if (role.equals("productCategory")) {
+            // Receive from master
+            String requestedCategory = (String) args[0]; // e.g., "pizza"
+
+            Map<String, Integer> result = new HashMap<>();
 
-                double userLat = request.getClientLatitude();
-                double userLon = request.getClientLongitude();
-                double maxDistance = request.getRadius();
+            for (Store store : stores.values()) {
+                if (store.isMovedAway()) continue; // its new worker answers for it
 
-                ArrayList<Store> result = new ArrayList<>();
+                int totalCategorySales = (int) store.getSales().getUnitsInCategory(requestedCategory);
+                if (totalCategorySales > 0) {
+                    result.put(store.getStoreName(), totalCategorySales);
+                }
+            }
 
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        double storeLat = store.getLatitude();
-                        double storeLon = store.getLongitude();
+            // Send to master
+            return new Object[]{result};
 
-                        double distance = Math.sqrt(Math.pow(userLat - storeLat, 2) + Math.pow(userLon - storeLon, 2));
-                        if (distance <= maxDistance) {
-                            result.add(store);
-                        }
+        }else if (role.equals("salesWindow")) {
+            // Receive from master
+            String requestedType = (String) args[0]; // "" for every store type
+            String by = (String) args[1];            // SalesRollup.ALL, CATEGORY or PRODUCT
+            String key = (String) args[2];           // the category or product, e.g., "pizza"
+            SalesRollup.Window window = SalesRollup.parseWindow((String) args[3]); // e.g., "30m"
+
+            Map<String, Integer> units = new HashMap<>();
+            Map<String, Double> revenue = new HashMap<>();
+            long now = System.currentTimeMillis();
+
+            for (Store store : stores.values()) {
+                if (store.isMovedAway()) continue; // its new worker answers for it
+
+                if (requestedType.isEmpty() || store.getCategory().equalsIgnoreCase(requestedType)) {
+                    SalesRollup.Amount amount = store.getRollup().total(window, by, key, now);
+                    if (amount.getUnits() > 0) {
+                        units.put(store.getStoreName(), (int) amount.getUnits());
+                        revenue.put(store.getStoreName(), amount.getRevenue());
                     }
                 }
+            }
 
-                // Add diagnostic store
-                result.add(new Store("DiagnosticStore_Worker", 0.0, 0.0, "DIAGNOSTIC", 0, 0, "diag.png", new ArrayList<Product>()));
-
-                // Send to master
-                out.writeObject(clientId);
-                out.flush();
+            // Send to master
+            return new Object[]{units, revenue};
 
-                out.writeObject(result);
-                out.flush();
+        }else if (role.equals("client")) {
+            // Receive from master
+            String clientId = (String) args[0];
 
-            }else if (role.equals("filter")) {
-                // Receive from master
-                String clientId = (String) in.readObject();
-                MapReduceRequest request = (MapReduceRequest) in.readObject();
+            MapReduceRequest request = (MapReduceRequest) args[1];
 
-                double userLat = request.getClientLatitude();
-                double userLon = request.getClientLongitude();
-                double radius = request.getRadius();
+            double userLat = request.getClientLatitude();
+            double userLon = request.getClientLongitude();
+            double maxDistance = request.getRadius(); // km
 
-                ArrayList<String> categories = (ArrayList<String>) request.getFoodCategories();
-                double minStars = request.getMinStars();
-                String price = request.getPriceCategory();
+            StoreRanking ranking = StoreRanking.of(request);
+            StoreRanking.TopK found = ranking.newTopK(); // only the best ones when the client asked for a limit
 
-                ArrayList<Store> result = new ArrayList<>();
+            GeoDistance.Circle area = new GeoDistance.Circle(userLat, userLon, maxDistance);
 
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        double distance = Math.sqrt(Math.pow(userLat - store.getLatitude(), 2) + Math.pow(userLon - store.getLongitude(), 2));
-                        boolean matchesDistance = distance <= radius;
-                        boolean matchesCategory = categories.isEmpty() || categories.contains(store.getCategory());
-                        boolean matchesStars = minStars == 0 || store.getStars() >= minStars;
-                        boolean matchesPrice = price.isEmpty() || store.calculatePriceCategory().equalsIgnoreCase(price);
+            // Only the stores in the grid cells around the client
+            for (Store store : stores.near(area.getMinLat(), area.getMaxLat(), area.getMinLon(), area.getMaxLon())) {
+                if (store.isMovedAway()) continue; // its new worker answers for it
 
-                        if (matchesDistance && matchesCategory && matchesStars && matchesPrice) {
-                            result.add(store);
-                        }
-                    }
+                if (area.contains(store.getLatitude(), store.getLongitude())) {
+                    found.add(new StoreSummary(store.getView(), area.distanceKm(store.getLatitude(), store.getLongitude())));
                 }
+            }
 
-                // Add diagnostic store
-                result.add(new Store("DiagnosticStore_Worker", 0.0, 0.0, "DIAGNOSTIC", 0, 0, "diag.png", new ArrayList<Product>()));
+            ArrayList<StoreSummary> result = found.result();
 
-                // Send to master
-                out.writeObject(clientId);
-                out.flush();
+            // Add diagnostic store, unless the results are ranked
+            if (!ranking.isRanked()) {
+                result.add(new StoreSummary("DiagnosticStore_Worker", 0.0, 0.0, "DIAGNOSTIC", 0, 0, "", "diag.png", 0));
+            }
 
-                out.writeObject(result);
-                out.flush();
+            // Send to reducer
+            return streamToReducer(args, clientId, request, result);
 
+        }else if (role.equals("filter")) {
+            // Receive from master
+            String clientId = (String) args[0];
+            MapReduceRequest request = (MapReduceRequest) args[1];
 
-            }else if (role.equals("fetchProducts")) {
-                // Receive from master
-                String responseId = (String) in.readObject();
-                String storeName = (String) in.readObject();
-
-                ArrayList<Product> available = new ArrayList<>();
-
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            for (Product product : store.getProducts()) {
-                                if (product.getStatus().equalsIgnoreCase("visible")) {
-                                    available.add(product);
-                                }
-                            }
-                            break;
-                        }
-                    }
-                }
+            double userLat = request.getClientLatitude();
+            double userLon = request.getClientLongitude();
+            double radius = request.getRadius(); // km
 
-                // Send to master
-                out.writeObject(responseId);
-                out.flush();
-                out.writeObject(available);
-                out.flush();
+            ArrayList<String> categories = (ArrayList<String>) request.getFoodCategories();
+            double minStars = request.getMinStars();
+            String price = request.getPriceCategory();
 
-            }else if (role.equals("purchase")) {
-                // Receive from master
-                String responseId = (String) in.readObject();
-                Purchase purchase = (Purchase) in.readObject();
-                String storeName = (String) in.readObject();
+            StoreRanking ranking = StoreRanking.of(request);
+            StoreRanking.TopK found = ranking.newTopK(); // only the best ones when the client asked for a limit
 
-                ArrayList<Product> requestedProducts = purchase.getPurchasedProducts();
+            GeoDistance.Circle area = new GeoDistance.Circle(userLat, userLon, radius);
 
-                String message = "";
+            // Candidates from the grid around the client or from the category, price and stars
+            // indexes, whichever holds fewer stores. Every predicate is still checked below.
+            for (Store store : stores.filter(area, categories, minStars, price)) {
+                if (store.isMovedAway()) continue; // its new worker answers for it
 
-                synchronized (lock) {
-                    Store targetStore = null;
-                    for (Store s : stores) { // find the object store
-                        if (s.getStoreName().equalsIgnoreCase(storeName)) {
-                            targetStore = s;
-                            break;
-                        }
-                    }
+                // Location never changes, so the distance is checked before taking the view
+                if (!area.contains(store.getLatitude(), store.getLongitude())) continue;
 
-                    if (targetStore != null) { // if the store is found we store the products
-                        Map<String, Product> storeProductMap = new HashMap<>();
-                        for (Product p : targetStore.getProducts()) {
-                            storeProductMap.put(p.getName().toLowerCase(), p);
-                        }
+                Store view = store.getView(); // stars and products as of the last change, read without locking
+                boolean matchesCategory = categories.isEmpty() || categories.contains(view.getCategory());
+                boolean matchesStars = minStars == 0 || view.getStars() >= minStars;
+                boolean matchesPrice = price.isEmpty() || view.getPriceCategory().equalsIgnoreCase(price);
 
-                        boolean allValid = true;
+                if (matchesCategory && matchesStars && matchesPrice) {
+                    found.add(new StoreSummary(view, area.distanceKm(store.getLatitude(), store.getLongitude())));
+                }
+            }
 
-                        for (Product req : requestedProducts) {
-                            Product available = storeProductMap.get(req.getName().toLowerCase());
+            ArrayList<StoreSummary> result = found.result();
 
-                            if (available == null) {
-                                message = "Product not found: " + req.getName();
-                                allValid = false;
-                                break;
-                            }
+            // Add diagnostic store, unless the results are ranked
+            if (!ranking.isRanked()) {
+                result.add(new StoreSummary("DiagnosticStore_Worker", 0.0, 0.0, "DIAGNOSTIC", 0, 0, "", "diag.png", 0));
+            }
 
-                            if (!available.getStatus().equalsIgnoreCase("visible")) {
-                                message = "Product not available: " + req.getName();
-                                allValid = false;
-                                break;
-                            }
+            // Send to reducer
+            return streamToReducer(args, clientId, request, result);
 
-                            if (available.getQuantity() < req.getQuantity()) {
-                                message = "Not enough quantity for: " + req.getName();
-                                allValid = false;
-                                break;
-                            }
-                        }
 
-                        if (allValid) {
-                            for (Product req : requestedProducts) {
-                                Product prod = storeProductMap.get(req.getName().toLowerCase());
+        }else if (role.equals("fetchProducts")) {
+            // Receive from master
+            String responseId = (String) args[0];
+            String storeName = (String) args[1];
+            String cursor = args.length > 2 ? (String) args[2] : null;
+            int pageSize = args.length > 3 ? (Integer) args[3] : 0; // 0 for all products
 
-                                prod.setQuantity(prod.getQuantity() - req.getQuantity());
+            ArrayList<Product> available = new ArrayList<>();
+            String nextCursor = null;
 
-                                // Fill up the empty fields
-                                req.setCategory(prod.getCategory());
-                                req.setPrice(prod.getPrice());
-                            }
+            Store store = stores.get(storeName);
+            if (store != null) {
+                ArrayList<Product> products = store.getView().getProducts();
+                // Products are only appended or hidden, so the index from the cursor still points to the same place
+                for (int i = PageCursor.productIndex(cursor, storeName); i < products.size(); i++) {
+                    Product product = products.get(i);
+                    if (!product.getStatus().equalsIgnoreCase("visible")) continue;
 
-                            targetStore.getPurchases().add(purchase);
-                            message = "Purchase successful at " + targetStore.getStoreName();
-                            if (requestedProducts.isEmpty()) {
-                                message = "The purchase requested is empty";
-                            }
+                    if (pageSize > 0 && available.size() == pageSize) {
+                        nextCursor = PageCursor.atProduct(storeName, i); // another visible product follows
+                        break;
+                    }
+                    available.add(product);
+                }
+            }
 
+            // Send to master
+            return new Object[]{responseId, available, nextCursor};
+
+        }else if (role.equals("purchase")) {
+            // Receive from master
+            String responseId = (String) args[0];
+            Purchase purchase = (Purchase) args[1];
+            String storeName = (String) args[2];
+
+            ArrayList<Product> requestedProducts = purchase.getPurchasedProducts();
+
+            String message = "";
+
+            Store targetStore = stores.get(storeName); // find the object store
+
+            if (targetStore != null) {
+                // Take the stock of every item without locking the store, only keeping removals out
+                // until the purchase is logged
+                StockReservation reservation;
+                targetStore.getStockLock().readLock().lock();
+                try {
+                    reservation = StockReservation.reserve(targetStore, requestedProducts);
+
+                    if (reservation.isReserved()) {
+                        // Fill up the empty fields
+                        reservation.commit(requestedProducts);
+                        purchase.setPurchasedAt(System.currentTimeMillis());
+
+                        // Only the purchase history needs the store's lock
+                        targetStore.getLock().writeLock().lock();
+                        try {
+                            targetStore.addPurchase(purchase);
+                            log("purchase", targetStore.getStoreName(), purchase);
+                        } finally {
+                            targetStore.getLock().writeLock().unlock();
                         }
                     }
+                } finally {
+                    targetStore.getStockLock().readLock().unlock();
                 }
 
-                // Send to master
-                out.writeObject(responseId);
-                out.flush();
-                out.writeObject(message);
-                out.flush();
+                if (reservation.isReserved()) {
+                    message = "Purchase successful at " + targetStore.getStoreName();
+                    if (requestedProducts.isEmpty()) {
+                        message = "The purchase requested is empty";
+                    }
+                } else {
+                    message = reservation.getFailure();
+                }
+            }
 
+            // Send to master
+            return new Object[]{responseId, message};
 
-            }else if (role.equals("rate")) {
-                // Receive from master
-                String responseId = (String) in.readObject();
-                String storeName = (String) in.readObject();
-                int rating = (int) in.readObject();
 
-                boolean storeFound = false;
+        }else if (role.equals("rate")) {
+            // Receive from master
+            String responseId = (String) args[0];
+            String storeName = (String) args[1];
+            int rating = (int) args[2];
 
-                synchronized (lock) {
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            double oldStars = store.getStars();          // current average rating
-                            int oldReviews = store.getNoOfReviews();  // total reviews so far
+            Store store = stores.get(storeName);
+            boolean storeFound = store != null;
 
-                            int newReviews = oldReviews + 1;
-                            double newAvg = (oldStars * oldReviews + rating) / newReviews;
+            if (store != null) {
+                store.getLock().writeLock().lock();
+                try {
+                    double oldStars = store.getStars();          // current average rating
+                    int oldReviews = store.getNoOfReviews();  // total reviews so far
 
-                            // Update store fields
-                            store.setStars(newAvg);
-                            store.setNoOfReviews(newReviews);
+                    int newReviews = oldReviews + 1;
+                    double newAvg = (oldStars * oldReviews + rating) / newReviews;
 
-                            storeFound = true;
-                            break;
-                        }
-                    }
+                    // Update store fields
+                    store.setStars(newAvg);
+                    store.setNoOfReviews(newReviews);
+                    stores.update(store);
+                    log("rate", storeName, newAvg, newReviews);
+                } finally {
+                    store.getLock().writeLock().unlock();
                 }
+            }
 
-                // Send to master
-                if (storeFound) {
-                    out.writeObject(responseId);
-                    out.flush();
-                    out.writeObject("Rating submitted successfully.");
-                    out.flush();
-                } else {
-                    out.writeObject(responseId);
-                    out.flush();
-                    out.writeObject("Store not found.");
-                    out.flush();
+            // Send to master
+            if (storeFound) {
+                return new Object[]{responseId, "Rating submitted successfully."};
+            } else {
+                return new Object[]{responseId, "Store not found."};
+            }
+        }
+
+        else if (role.equals("customerPurchasesByStore")) {
+            // Receive from master
+            String customerName = (String) args[0];
+            String storeName = (String) args[1];
+
+            Map<String, Integer> customerPurchases = new HashMap<>();
+
+            // Βρες το κατάστημα
+            Store targetStore = stores.get(storeName);
+
+            if (targetStore != null) {
+                targetStore.getLock().readLock().lock();
+                try {
+                    // Read the quantities of the customer's purchases straight from the purchase log
+                    customerPurchases = targetStore.getPurchases().unitsBoughtBy(customerName);
+                } finally {
+                    targetStore.getLock().readLock().unlock();
                 }
             }
 
-            else if (role.equals("customerPurchasesByStore")) {
-                // Receive from master
-                String customerName = (String) in.readObject();
-                String storeName = (String) in.readObject();
-
-                Map<String, Integer> customerPurchases = new HashMap<>();
-
-                synchronized (lock) {
-                    // Βρες το κατάστημα
-                    Store targetStore = null;
-                    for (Store store : stores) {
-                        if (store.getStoreName().equalsIgnoreCase(storeName)) {
-                            targetStore = store;
-                            break;
-                        }
+            // Send to master
+            return new Object[]{customerPurchases};
+        }
+
+        else if (role.equals("listStores")) {
+            ArrayList<String> names = new ArrayList<>();
+
+            for (Store store : stores.values()) {
+                if (!store.isMovedAway()) {
+                    names.add(store.getStoreName());
+                }
+            }
+
+            // Send to master
+            return new Object[]{names};
+
+        }else if (role.equals("migrateStores")) {
+            // Receive from master the stores to move and the worker that takes them
+            ArrayList<String> names = (ArrayList<String>) args[0];
+            String targetIP = (String) args[1];
+            int targetPort = (int) args[2];
+
+            ArrayList<String> moved = new ArrayList<>();
+
+            // Stream each store straight to the new worker. The Master blocks writes to these
+            // stores meanwhile, and reads keep being served here until the routing switches.
+            WorkerConnection target = new WorkerConnection(targetIP, targetPort);
+            try {
+                for (String name : names) {
+                    Store store = stores.get(name);
+                    if (store == null || store.isMovedAway()) {
+                        continue;
                     }
 
-                    if (targetStore != null) {
-                        // Πέρασε από όλες τις αγορές του καταστήματος
-                        for (Purchase purchase : targetStore.getPurchases()) {
-                            // Έλεγξε αν η αγορά είναι από τον συγκεκριμένο πελάτη
-                            if (purchase.getCustomerName().equalsIgnoreCase(customerName)) {
-                                // Πρόσθεσε τα προϊόντα στο map
-                                for (Product product : purchase.getPurchasedProducts()) {
-                                    String productName = product.getName();
-                                    int quantity = product.getQuantity();
-
-                                    // Αν το προϊόν υπάρχει ήδη στο map, πρόσθεσε την ποσότητα
-                                    customerPurchases.merge(productName, quantity, Integer::sum);
-                                }
-                            }
-                        }
+                    // Send to the new worker the full state: products, purchases and ratings
+                    Object[] reply;
+                    store.getLock().readLock().lock();
+                    try {
+                        reply = target.call(WorkerPool.REQUEST_TIMEOUT_MS, "importStore", store);
+                    } finally {
+                        store.getLock().readLock().unlock();
+                    }
+                    if ("Store imported".equals(reply[0])) {
+                        // Logged, so a restart before "dropStores" does not bring the store back into searches
+                        store.setMovedAway(true);
+                        log("movedAway", store.getStoreName());
+                        moved.add(store.getStoreName());
                     }
                 }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                target.close();
+            }
 
-                // Send to master
-                out.writeObject(customerPurchases);
-                out.flush();
+            // Send to master the stores the new worker now holds
+            return new Object[]{moved};
+
+        }else if (role.equals("importStore")) {
+            // Receive from another worker
+            Store s = (Store) args[0];
+
+            // A retried migration replaces the copy it sent before
+            synchronized (stores) {
+                log("importStore", s);
+                stores.put(s);
             }
 
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        } finally {
+            // Send to the worker
+            return new Object[]{"Store imported"};
+
+        }else if (role.equals("dropStores")) {
+            // Receive from master the stores that now live on another worker
+            ArrayList<String> names = (ArrayList<String>) args[0];
+
+            ArrayList<String> dropped = new ArrayList<>();
+
+            for (String name : names) {
+                Store store = stores.get(name);
+                if (store == null || !store.isMovedAway()) continue; // never drop a store that was not copied
+                if (stores.remove(store)) {
+                    dropped.add(store.getStoreName());
+                }
+            }
+            if (!dropped.isEmpty()) {
+                log("dropStores", dropped);
+            }
+
+            // Send to master
+            return new Object[]{dropped.size()};
+        }
+
+        else if (role.equals("ping")) {
+            // Send to master the replicas this worker streams to
+            return new Object[]{replicas.attached()};
+
+        }else if (role.equals("attachReplica")) {
+            // Receive from master the worker that copies this one
+            String replicaIP = (String) args[0];
+            int replicaPort = (int) args[1];
+
             try {
-                if (in != null) in.close();
-                if (out != null) out.close();
-                if (connection != null && !connection.isClosed()) connection.close();
+                boolean attached = replicas.attach(replicaIP, replicaPort, stores);
+
+                // Send to master
+                return new Object[]{attached ? "Replica attached" : "Replica already attached"};
             } catch (IOException e) {
                 e.printStackTrace();
+                return new Object[]{"Replica not attached"};
             }
+
+        }else if (role.equals("replicate")) {
+            // Receive from the primary its changes, in order
+            ArrayList<Object> records = (ArrayList<Object>) args[0];
+
+            for (Object entry : records) {
+                ArrayList<Object> record = (ArrayList<Object>) entry;
+                String change = (String) record.get(0);
+                Object[] changeArgs = record.subList(1, record.size()).toArray();
+
+                WriteAheadLog.replay(stores, new WorkerRequest(0, change, changeArgs));
+                log(change, changeArgs);
+            }
+
+            // Send to the primary
+            return new Object[]{records.size()};
         }
+
+        System.out.println("[Worker] Unknown role: " + role);
+        return new Object[]{null};
     }}
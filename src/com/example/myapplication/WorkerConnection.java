@@ -0,0 +1,181 @@
+package com.example.myapplication;
+import java.io.*;
+import java.net.*;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A long-lived connection from the Master to one Worker.
+// Many requests can be in flight on the same socket: every request carries an id
+// and a reader thread hands each response to the caller that waits for that id.
+public class WorkerConnection {
+    // How long opening a socket to a worker may take, override with -Dfoodapp.connectTimeoutMs=N
+    public static final int CONNECT_TIMEOUT_MS = Integer.getInteger("foodapp.connectTimeoutMs", 2000);
+
+    private final String workerIP;
+    private final int workerPort;
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private Channel channel; // guarded by this
+    private CompletableFuture<Channel> connecting; // guarded by this, set while a connect runs
+
+    public WorkerConnection(String workerIP, int workerPort) {
+        this.workerIP = workerIP;
+        this.workerPort = workerPort;
+    }
+
+    // Sends a request to the worker and returns a future with the values of its reply.
+    // Never waits for a connect: a request made while the socket is being opened is sent
+    // once it is open. Cancelling the future stops waiting for the reply.
+    public CompletableFuture<Object[]> submit(String role, Object... args) {
+        CompletableFuture<Object[]> future = new CompletableFuture<>();
+        WorkerRequest request = new WorkerRequest(nextRequestId.incrementAndGet(), role, args);
+
+        open().whenComplete((current, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            } else {
+                send(current, request, future);
+            }
+        });
+        return future;
+    }
+
+    private void send(Channel current, WorkerRequest request, CompletableFuture<Object[]> future) {
+        long requestId = request.getRequestId();
+        current.pending.put(requestId, future);
+        future.whenComplete((reply, e) -> current.pending.remove(requestId)); // also when the caller gave up
+        try {
+            if (current.closed) {
+                throw new IOException("Connection to " + this + " was lost");
+            }
+
+            // Send to worker
+            current.stream.writeMessage(request);
+        } catch (IOException e) {
+            current.close(e);
+            future.completeExceptionally(e);
+        }
+    }
+
+    // Sends a request and waits for the reply of the worker
+    public Object[] call(long timeoutMillis, String role, Object... args) throws IOException {
+        CompletableFuture<Object[]> future = submit(role, args);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + role + " from " + this);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new SocketTimeoutException("No reply for " + role + " from " + this + " after " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    public synchronized void close() {
+        if (channel != null) {
+            channel.close(new IOException("Connection to " + this + " closed"));
+            channel = null;
+        }
+    }
+
+    // Returns the open channel, or connects again if the previous one was lost. The connect
+    // runs on its own thread without the lock, so a worker that does not answer holds up
+    // no caller for longer than it waits for its reply.
+    private synchronized CompletableFuture<Channel> open() {
+        if (channel != null && !channel.closed) {
+            return CompletableFuture.completedFuture(channel);
+        }
+        if (connecting == null) {
+            CompletableFuture<Channel> connect = new CompletableFuture<>();
+            connecting = connect;
+            Thread connector = new Thread(() -> connect(connect), "WorkerConnection-connect-" + this);
+            connector.setDaemon(true);
+            connector.start();
+        }
+        return connecting;
+    }
+
+    private void connect(CompletableFuture<Channel> connect) {
+        Channel opened = null;
+        IOException failure = null;
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(workerIP, workerPort), CONNECT_TIMEOUT_MS);
+            opened = new Channel(socket);
+            opened.start();
+        } catch (IOException e) {
+            failure = e;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        synchronized (this) {
+            connecting = null;
+            if (opened != null) {
+                channel = opened;
+            }
+        }
+        if (opened != null) {
+            connect.complete(opened);
+        } else {
+            connect.completeExceptionally(failure);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return workerIP + ":" + workerPort;
+    }
+
+    // One physical socket with its stream and the requests waiting for a reply on it
+    private class Channel extends Thread {
+        final MessageStream stream;
+        final Map<Long, CompletableFuture<Object[]>> pending = new ConcurrentHashMap<>();
+        volatile boolean closed = false;
+
+        Channel(Socket socket) throws IOException {
+            this.stream = MessageStream.connect(socket);
+            setName("WorkerConnection-" + WorkerConnection.this);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    // Receive from worker
+                    WorkerResponse response = (WorkerResponse) stream.readMessage();
+
+                    CompletableFuture<Object[]> future = pending.remove(response.getRequestId());
+                    if (future == null) {
+                        continue;
+                    }
+                    if (response.getError() != null) {
+                        future.completeExceptionally(new IOException("Worker " + WorkerConnection.this + " failed on " + response.getError()));
+                    } else {
+                        future.complete(response.getValues());
+                    }
+                }
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        // Closes the socket and fails every request that is still waiting on it
+        void close(IOException cause) {
+            if (closed) return;
+            closed = true;
+            stream.close();
+            for (CompletableFuture<Object[]> future : pending.values()) {
+                future.completeExceptionally(cause);
+            }
+            pending.clear();
+        }
+    }
+}
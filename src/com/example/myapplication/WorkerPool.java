@@ -0,0 +1,389 @@
+package com.example.myapplication;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Keeps a few long-lived WorkerConnections open to every Worker and spreads
+// the requests of all Actions threads over them. A worker may have replicas, workers
+// that copy its stores: reads can go to them, writes always go to the worker itself.
+public class WorkerPool {
+    // Default number of sockets per worker, override with -Dfoodapp.connectionsPerWorker=N
+    public static final int CONNECTIONS_PER_WORKER = Integer.getInteger("foodapp.connectionsPerWorker", 2);
+
+    // How long a caller waits for a worker reply, override with -Dfoodapp.workerTimeoutMs=N
+    public static final long REQUEST_TIMEOUT_MS = Long.getLong("foodapp.workerTimeoutMs", 30000);
+
+    // Deadline of a scatter-gather over all workers, override with -Dfoodapp.scatterTimeoutMs=N
+    public static final long SCATTER_TIMEOUT_MS = Long.getLong("foodapp.scatterTimeoutMs", 5000);
+
+    private final int connectionsPerWorker;
+    private volatile String[][] workers; // IP and port of every worker, null once a worker is removed
+    private volatile WorkerConnection[][] connections;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private final Map<Integer, List<Replica>> replicas = new ConcurrentHashMap<>(); // by worker id
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    public WorkerPool(String[][] workers) {
+        this(workers, CONNECTIONS_PER_WORKER);
+    }
+
+    public WorkerPool(String[][] workers, int connectionsPerWorker) {
+        this.connectionsPerWorker = Math.max(1, connectionsPerWorker);
+        this.workers = new String[0][];
+        this.connections = new WorkerConnection[0][];
+
+        for (String[] worker : workers) {
+            addWorker(worker[0], Integer.parseInt(worker[1]));
+        }
+    }
+
+    // Number of worker slots, including removed ones
+    public int size() {
+        return workers.length;
+    }
+
+    public String[][] getWorkers() {
+        return workers;
+    }
+
+    public boolean isActive(int workerId) {
+        WorkerConnection[][] current = connections;
+        return workerId >= 0 && workerId < current.length && current[workerId] != null;
+    }
+
+    // Opens connections to a new worker and returns its id
+    public synchronized int addWorker(String workerIP, int workerPort) {
+        int workerId = workers.length;
+
+        WorkerConnection[] workerConnections = new WorkerConnection[connectionsPerWorker];
+        for (int j = 0; j < workerConnections.length; j++) {
+            workerConnections[j] = new WorkerConnection(workerIP, workerPort);
+        }
+
+        String[][] newWorkers = Arrays.copyOf(workers, workerId + 1);
+        newWorkers[workerId] = new String[]{workerIP, String.valueOf(workerPort)};
+        WorkerConnection[][] newConnections = Arrays.copyOf(connections, workerId + 1);
+        newConnections[workerId] = workerConnections;
+
+        connections = newConnections;
+        workers = newWorkers;
+        return workerId;
+    }
+
+    // Adds a replica of a worker. Reads go to it once the ReplicaMonitor finds it healthy.
+    public Replica addReplica(int workerId, String replicaIP, int replicaPort) {
+        Replica replica = new Replica(replicaIP, replicaPort, connectionsPerWorker);
+        replicas.computeIfAbsent(workerId, id -> new CopyOnWriteArrayList<>()).add(replica);
+        return replica;
+    }
+
+    public List<Replica> getReplicas(int workerId) {
+        List<Replica> workerReplicas = replicas.get(workerId);
+        return workerReplicas == null ? new ArrayList<>() : workerReplicas;
+    }
+
+    // Makes a healthy replica of a worker that stopped answering the new owner of its slot,
+    // so the router and every write keep using the same id. Returns the replica, or null if
+    // the worker has none that is healthy.
+    public synchronized Replica promote(int workerId) {
+        if (!isActive(workerId)) return null;
+
+        Replica promoted = null;
+        for (Replica replica : getReplicas(workerId)) {
+            if (replica.healthy) {
+                promoted = replica;
+                break;
+            }
+        }
+        if (promoted == null) return null;
+        replicas.get(workerId).remove(promoted);
+        promoted.healthy = false;
+
+        WorkerConnection[][] newConnections = connections.clone();
+        String[][] newWorkers = workers.clone();
+        for (WorkerConnection connection : newConnections[workerId]) {
+            connection.close();
+        }
+        newConnections[workerId] = promoted.connections;
+        newWorkers[workerId] = new String[]{promoted.ip, String.valueOf(promoted.port)};
+
+        connections = newConnections;
+        workers = newWorkers;
+        return promoted;
+    }
+
+    // Closes the connections to a worker and its replicas. Its id is not reused.
+    public synchronized void removeWorker(int workerId) {
+        if (!isActive(workerId)) return;
+        List<Replica> removed = replicas.remove(workerId);
+        if (removed != null) {
+            for (Replica replica : removed) {
+                replica.close();
+            }
+        }
+
+        WorkerConnection[][] newConnections = connections.clone();
+        String[][] newWorkers = workers.clone();
+        for (WorkerConnection connection : newConnections[workerId]) {
+            connection.close();
+        }
+        newConnections[workerId] = null;
+        newWorkers[workerId] = null;
+
+        connections = newConnections;
+        workers = newWorkers;
+    }
+
+    // Sends a request to a worker without waiting for the reply
+    public CompletableFuture<Object[]> submit(int workerId, String role, Object... args) {
+        WorkerConnection connection = pick(workerId);
+        if (connection == null) {
+            return CompletableFuture.failedFuture(new IOException("Worker " + workerId + " is not part of the pool"));
+        }
+        return connection.submit(role, args);
+    }
+
+    // Sends a request to a worker and waits for the reply
+    public Object[] call(int workerId, String role, Object... args) throws IOException {
+        WorkerConnection connection = pick(workerId);
+        if (connection == null) {
+            throw new IOException("Worker " + workerId + " is not part of the pool");
+        }
+        return connection.call(REQUEST_TIMEOUT_MS, role, args);
+    }
+
+    // Sends new stores to the workers that own them, one "addStores" message per worker, all at
+    // once, and returns how many were added. Waits while any of them is being migrated. The stores
+    // of a worker that fails count as not added; the reason is added to failures, if given.
+    public int addStores(StoreRouter router, List<Store> stores, List<String> failures) {
+        ArrayList<String> names = new ArrayList<>(stores.size());
+        for (Store store : stores) {
+            names.add(store.getStoreName());
+        }
+        List<ReentrantReadWriteLock> fences = router.beginWrites(names);
+        try {
+            // Select the worker that owns each store
+            Map<Integer, ArrayList<Store>> batches = new TreeMap<>();
+            for (Store store : stores) {
+                batches.computeIfAbsent(router.workerFor(store.getStoreName()), id -> new ArrayList<>()).add(store);
+            }
+
+            // Send to workers
+            Map<Integer, CompletableFuture<Object[]>> replies = new TreeMap<>();
+            for (Map.Entry<Integer, ArrayList<Store>> batch : batches.entrySet()) {
+                replies.put(batch.getKey(), submit(batch.getKey(), "addStores", batch.getValue()));
+            }
+
+            // Receive from workers one result per store
+            int successCount = 0;
+            for (Map.Entry<Integer, CompletableFuture<Object[]>> reply : replies.entrySet()) {
+                String failure;
+                try {
+                    ArrayList<String> results = (ArrayList<String>) reply.getValue().get(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)[0];
+                    for (String response : results) {
+                        if ("Store added successfully".equals(response)) {
+                            successCount++;
+                        }
+                    }
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = "interrupted";
+                } catch (ExecutionException e) {
+                    failure = String.valueOf(e.getCause());
+                } catch (TimeoutException e) {
+                    reply.getValue().cancel(false);
+                    failure = "no reply after " + REQUEST_TIMEOUT_MS + " ms";
+                }
+                int count = batches.get(reply.getKey()).size();
+                System.out.println("[Master] Worker " + reply.getKey() + " failed to add " + count + " stores: " + failure);
+                if (failures != null) {
+                    failures.add(count + " stores for worker " + reply.getKey() + ": " + failure);
+                }
+            }
+            return successCount;
+        } finally {
+            router.endWrites(fences);
+        }
+    }
+
+    // Sends a read to a healthy replica of the worker, taking turns, or to the worker itself
+    // if it has none. If the replica fails the worker answers instead. The reply may miss
+    // the last changes, which reach the replicas a moment after the worker.
+    // Cancelling the returned future cancels the request that is waiting for a reply.
+    public CompletableFuture<Object[]> submitRead(int workerId, String role, Object... args) {
+        Replica replica = pickReplica(workerId);
+        if (replica == null) {
+            return submit(workerId, role, args);
+        }
+        CompletableFuture<Object[]> first = replica.submit(role, args);
+        CompletableFuture<CompletableFuture<Object[]>> retry = new CompletableFuture<>();
+        CompletableFuture<Object[]> result = first.exceptionallyCompose(e -> {
+            if (first.isCancelled()) {
+                return first;
+            }
+            replica.healthy = false;
+            CompletableFuture<Object[]> second = submit(workerId, role, args);
+            retry.complete(second);
+            return second;
+        });
+        result.whenComplete((reply, e) -> {
+            if (result.isCancelled()) {
+                first.cancel(false);
+                retry.thenAccept(second -> second.cancel(false));
+            }
+        });
+        return result;
+    }
+
+    // Sends a read as submitRead does and waits for the reply
+    public Object[] callRead(int workerId, String role, Object... args) throws IOException {
+        CompletableFuture<Object[]> future = submitRead(workerId, role, args);
+        try {
+            return future.get(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + role + " from worker " + workerId);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new SocketTimeoutException("No reply for " + role + " from worker " + workerId + " after " + REQUEST_TIMEOUT_MS + " ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Sends the same request to all workers at once and collects the replies that arrive
+    // before the deadline. Workers that fail or are too slow are left out, so the caller
+    // gets partial results instead of waiting for the slowest worker.
+    public ArrayList<Object[]> scatter(String role, Object... args) {
+        return scatter(SCATTER_TIMEOUT_MS, false, role, args);
+    }
+
+    // Same as scatter, with each request sent as submitRead does
+    public ArrayList<Object[]> scatterReads(String role, Object... args) {
+        return scatter(SCATTER_TIMEOUT_MS, true, role, args);
+    }
+
+    public ArrayList<Object[]> scatter(long timeoutMillis, String role, Object... args) {
+        return scatter(timeoutMillis, false, role, args);
+    }
+
+    private ArrayList<Object[]> scatter(long timeoutMillis, boolean read, String role, Object... args) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        ArrayList<Integer> workerIds = new ArrayList<>();
+        ArrayList<CompletableFuture<Object[]>> futures = new ArrayList<>();
+        WorkerConnection[][] current = connections;
+        for (int i = 0; i < current.length; i++) { // send to all workers before waiting for any
+            if (current[i] != null) {
+                workerIds.add(i);
+                futures.add(read ? submitRead(i, role, args) : submit(i, role, args));
+            }
+        }
+
+        ArrayList<Object[]> replies = new ArrayList<>();
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                replies.add(futures.get(i).get(remaining, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                futures.get(i).cancel(false); // drops the request from the connection
+                System.out.println("[Master] Worker " + workerIds.get(i) + " did not answer " + role + " within " + timeoutMillis + " ms, returning partial results");
+            } catch (ExecutionException e) {
+                System.out.println("[Master] Worker " + workerIds.get(i) + " failed on " + role + ": " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return replies;
+    }
+
+    public void close() {
+        for (WorkerConnection[] workerConnections : connections) {
+            if (workerConnections == null) continue;
+            for (WorkerConnection connection : workerConnections) {
+                connection.close();
+            }
+        }
+        for (List<Replica> workerReplicas : replicas.values()) {
+            for (Replica replica : workerReplicas) {
+                replica.close();
+            }
+        }
+    }
+
+    // Round-robin over the healthy replicas of the worker, null if none is healthy
+    private Replica pickReplica(int workerId) {
+        List<Replica> workerReplicas = replicas.get(workerId);
+        if (workerReplicas == null || workerReplicas.isEmpty()) {
+            return null;
+        }
+        int start = nextReplica.getAndIncrement();
+        for (int i = 0; i < workerReplicas.size(); i++) {
+            Replica replica = workerReplicas.get(Math.floorMod(start + i, workerReplicas.size()));
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    // Round-robin over the connections of the worker, null if the worker was removed
+    private WorkerConnection pick(int workerId) {
+        WorkerConnection[][] current = connections;
+        WorkerConnection[] workerConnections = workerId >= 0 && workerId < current.length ? current[workerId] : null;
+        if (workerConnections == null) {
+            return null;
+        }
+        return workerConnections[Math.floorMod(nextConnection.getAndIncrement(), workerConnections.length)];
+    }
+
+    // A worker that copies the stores of another one
+    public static class Replica {
+        final String ip;
+        final int port;
+        final WorkerConnection[] connections;
+        private final AtomicInteger nextConnection = new AtomicInteger();
+        volatile boolean healthy = false; // set by the ReplicaMonitor
+
+        Replica(String ip, int port, int connectionsPerWorker) {
+            this.ip = ip;
+            this.port = port;
+            this.connections = new WorkerConnection[connectionsPerWorker];
+            for (int j = 0; j < connections.length; j++) {
+                connections[j] = new WorkerConnection(ip, port);
+            }
+        }
+
+        public CompletableFuture<Object[]> submit(String role, Object... args) {
+            return connections[Math.floorMod(nextConnection.getAndIncrement(), connections.length)].submit(role, args);
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        void close() {
+            for (WorkerConnection connection : connections) {
+                connection.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return ip + ":" + port;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.myapplication;
+import java.io.Serializable;
+
+// A single request sent from the Master to a Worker over a pooled connection.
+// The requestId lets many requests share one connection: the Worker echoes it
+// back in the matching WorkerResponse.
+public class WorkerRequest implements Serializable {
+    private long requestId;
+    private String role;
+    private Object[] args;
+
+    public WorkerRequest(long requestId, String role, Object[] args) {
+        this.requestId = requestId;
+        this.role = role;
+        this.args = args;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public Object[] getArgs() {
+        return args;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkerRequest{" +
+                "requestId=" + requestId +
+                ", role='" + role + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.myapplication;
+import java.io.Serializable;
+
+// The reply of a Worker to a WorkerRequest. The values are the objects the
+// role sends back to the Master, in the same order as the old one-role-per-socket protocol.
+// A request that failed on the worker gets an error instead of values.
+public class WorkerResponse implements Serializable {
+    private long requestId;
+    private Object[] values;
+    private String error; // why the request failed, null when it did not
+
+    public WorkerResponse(long requestId, Object[] values) {
+        this.requestId = requestId;
+        this.values = values;
+    }
+
+    public static WorkerResponse failed(long requestId, String error) {
+        WorkerResponse response = new WorkerResponse(requestId, null);
+        response.error = error;
+        return response;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public Object[] getValues() {
+        return values;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkerResponse{" +
+                "requestId=" + requestId +
+                (error != null ? ", error=" + error : ", values=" + values.length) +
+                '}';
+    }
+}
@@ -0,0 +1,448 @@
+package com.example.myapplication;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+// The state of one worker on disk, so a restarted worker comes back with its stores, stock,
+// ratings and purchases. Every change is appended to a memory-mapped log as one record and
+// the request only answers once its record is on disk. Requests that finish at the same time
+// share one flush (group commit): the first to flush takes everything appended so far with
+// it, and the others find their records already written.
+// A snapshot writes every store once, in the same record format, and starts a new log, so a
+// restart reads the last snapshot and the log after it instead of the whole history.
+//
+// Files in the worker's directory:
+//   snapshot.bin      int magic | long generation | records | int 0
+//   wal-<gen>.log     chunks of int chunk size | records | int -1 or zeros up to the chunk end
+// Record: int frame length | int CRC32 of the frame | a WireCodec frame of a WorkerRequest.
+// Recovery stops at the first record that is missing or torn.
+//
+// Records say what changed, not what was asked: "purchase" holds the completed purchase,
+// "rate" the new stars and reviews. Stock changes are additions, so they add up to the same
+// stock in whatever order concurrent requests wrote them.
+public class WriteAheadLog {
+    // Size of each mapped piece of a log file, override with -Dfoodapp.walChunkBytes=N
+    private static final int CHUNK_BYTES = Integer.getInteger("foodapp.walChunkBytes", 16 * 1024 * 1024);
+    // -Dfoodapp.walSync=false leaves the flushing to the OS: a crashed worker loses nothing,
+    // a crashed machine may lose the last changes
+    private static final boolean SYNC = !"false".equalsIgnoreCase(System.getProperty("foodapp.walSync"));
+
+    private static final int SNAPSHOT_MAGIC = 0x46415331; // "FAS1"
+    private static final int END_OF_CHUNK = -1;
+
+    // The roles that change the worker's stores and are logged. "replicate" brings the changes
+    // of a primary, which a replica logs one by one.
+    private static final Set<String> MUTATIONS = new HashSet<>(Arrays.asList(
+            "manager", "addStores", "NewProduct", "AmountInc", "AmountDec", "remove", "purchase", "rate", "importStore", "dropStores",
+            "migrateStores", "replicate"));
+
+    private final File dir;
+    private final StoreIndex stores;
+    // Changes share it, a snapshot takes it alone so no change is half applied while it copies the stores
+    private final ReentrantReadWriteLock checkpoint = new ReentrantReadWriteLock();
+    private final Object syncLock = new Object();     // one flush at a time
+    private final Object snapshotLock = new Object(); // one snapshot at a time
+
+    // The open log, guarded by this
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer chunk;
+    private long chunkStart; // offset of the chunk in the file
+    private MappedByteBuffer flushedChunk; // the chunk of the last group commit, guarded by syncLock
+    private int chunkFlushed;              // and how much of it was flushed
+    private long recordsSinceSnapshot;
+
+    private volatile long appended; // bytes appended since the worker started
+    private volatile long durable;  // of those, bytes known to be on disk
+
+    private WriteAheadLog(File dir, StoreIndex stores) {
+        this.dir = dir;
+        this.stores = stores;
+    }
+
+    public static boolean isMutation(String role) {
+        return MUTATIONS.contains(role);
+    }
+
+    // Loads the last snapshot and the logs after it into stores, then writes a new snapshot
+    // and opens an empty log
+    public static WriteAheadLog open(File dir, StoreIndex stores) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        long start = System.currentTimeMillis();
+        WriteAheadLog log = new WriteAheadLog(dir, stores);
+
+        long generation = 0;
+        int records = 0;
+        File snapshot = new File(dir, "snapshot.bin");
+        if (snapshot.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new StreamCorruptedException("Not a snapshot: " + snapshot);
+                }
+                generation = in.readLong();
+                records += replaySnapshot(in, stores);
+            }
+        }
+
+        // A crash between starting a log and finishing the snapshot leaves more than one log
+        for (long logGeneration : logGenerations(dir)) {
+            if (logGeneration >= generation) {
+                records += replayLog(logFile(dir, logGeneration), stores);
+                log.generation = logGeneration;
+            }
+        }
+        log.generation = Math.max(log.generation, generation);
+
+        if (records > 0) {
+            System.out.println("[Worker] Recovered " + stores.size() + " stores from " + records + " records in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+        log.snapshot();
+        return log;
+    }
+
+    // Runs a change of the worker's stores and waits until what it logged is on disk
+    public Object[] mutate(Supplier<Object[]> change) {
+        Object[] values;
+        checkpoint.readLock().lock();
+        try {
+            values = change.get();
+        } finally {
+            checkpoint.readLock().unlock();
+        }
+        awaitDurable(appended);
+        return values;
+    }
+
+    // Appends one change. Called from inside mutate, by the thread that made the change.
+    public void append(String role, Object... args) {
+        byte[] frame;
+        try {
+            frame = WireCodec.encodeFrame(new WorkerRequest(0, role, args));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(frame);
+
+        synchronized (this) {
+            int needed = 8 + frame.length;
+            try {
+                if (chunk.remaining() < needed) {
+                    nextChunk(needed);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            chunk.putInt(frame.length);
+            chunk.putInt((int) crc.getValue());
+            chunk.put(frame);
+            appended += needed;
+            recordsSinceSnapshot++;
+        }
+    }
+
+    // Group commit: whoever flushes writes out every record appended up to that moment
+    private void awaitDurable(long upTo) {
+        if (!SYNC || durable >= upTo) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durable >= upTo) {
+                return; // flushed by another request meanwhile
+            }
+            long target;
+            MappedByteBuffer current;
+            int end;
+            synchronized (this) {
+                target = appended;
+                current = chunk;
+                end = chunk.position();
+            }
+            // Only the part written since the last flush; earlier chunks were flushed when they filled up
+            int from = current == flushedChunk ? chunkFlushed : 0;
+            current.force(from, end - from);
+            flushedChunk = current;
+            chunkFlushed = end;
+            durable = target;
+        }
+    }
+
+    // Writes every store to a new snapshot and starts a new log. Does nothing if no change
+    // was logged since the last one.
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            ArrayList<byte[]> frames = new ArrayList<>();
+            long snapshotGeneration;
+
+            checkpoint.writeLock().lock();
+            try {
+                synchronized (this) {
+                    if (channel != null && recordsSinceSnapshot == 0) {
+                        return;
+                    }
+                }
+                for (Store store : stores.values()) {
+                    frames.add(WireCodec.encodeFrame(new WorkerRequest(0, "importStore", new Object[]{store})));
+                    if (store.isMovedAway()) {
+                        frames.add(WireCodec.encodeFrame(new WorkerRequest(0, "movedAway", new Object[]{store.getStoreName()})));
+                    }
+                }
+                synchronized (this) {
+                    closeLog();
+                    generation++;
+                    openLog();
+                    snapshotGeneration = generation;
+                }
+            } finally {
+                checkpoint.writeLock().unlock();
+            }
+
+            // Written beside the old one and renamed, so a crash leaves one or the other whole
+            File tmp = new File(dir, "snapshot.tmp");
+            try (FileOutputStream file = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(snapshotGeneration);
+                CRC32 crc = new CRC32();
+                for (byte[] frame : frames) {
+                    crc.reset();
+                    crc.update(frame);
+                    out.writeInt(frame.length);
+                    out.writeInt((int) crc.getValue());
+                    out.write(frame);
+                }
+                out.writeInt(0);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tmp.toPath(), new File(dir, "snapshot.bin").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (long logGeneration : logGenerations(dir)) {
+                if (logGeneration < snapshotGeneration) {
+                    Files.deleteIfExists(logFile(dir, logGeneration).toPath());
+                }
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            try {
+                closeLog();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void openLog() throws IOException {
+        channel = FileChannel.open(logFile(dir, generation).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        chunk = null;
+        chunkStart = 0;
+        recordsSinceSnapshot = 0;
+        nextChunk(0);
+    }
+
+    private void closeLog() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        chunk.force();
+        durable = appended;
+        channel.close();
+        channel = null;
+        chunk = null;
+    }
+
+    // Maps the next chunk of the log file, big enough for a record of "needed" bytes
+    private void nextChunk(int needed) throws IOException {
+        if (chunk != null) {
+            if (chunk.remaining() >= 4) {
+                chunk.putInt(END_OF_CHUNK);
+            }
+            if (SYNC) {
+                chunk.force();
+            }
+            chunkStart += chunk.capacity();
+        }
+        int size = Math.max(CHUNK_BYTES, needed + 8);
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, size);
+        chunk.putInt(size);
+    }
+
+    private static File logFile(File dir, long generation) {
+        return new File(dir, "wal-" + generation + ".log");
+    }
+
+    // Generations of the log files in the directory, oldest first
+    private static ArrayList<Long> logGenerations(File dir) {
+        ArrayList<Long> generations = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return generations;
+        }
+        for (String name : names) {
+            if (name.startsWith("wal-") && name.endsWith(".log")) {
+                try {
+                    generations.add(Long.parseLong(name.substring(4, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private static int replaySnapshot(DataInputStream in, StoreIndex stores) throws IOException {
+        int records = 0;
+        CRC32 crc = new CRC32();
+        while (true) {
+            int length = in.readInt();
+            if (length <= 0) {
+                return records;
+            }
+            int expected = in.readInt();
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            crc.reset();
+            crc.update(frame);
+            if ((int) crc.getValue() != expected) {
+                throw new StreamCorruptedException("Damaged record in the snapshot");
+            }
+            replay(stores, (WorkerRequest) WireCodec.decodeFrame(frame));
+            records++;
+        }
+    }
+
+    private static int replayLog(File file, StoreIndex stores) throws IOException {
+        int records = 0;
+        CRC32 crc = new CRC32();
+        try (FileChannel log = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = log.size();
+            long start = 0;
+            while (start + 4 <= size) {
+                ByteBuffer header = ByteBuffer.allocate(4);
+                log.read(header, start);
+                int chunkSize = header.getInt(0);
+                if (chunkSize <= 0) {
+                    break;
+                }
+                MappedByteBuffer chunk = log.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+                chunk.position(4);
+                while (chunk.remaining() >= 4) {
+                    int length = chunk.getInt();
+                    if (length == END_OF_CHUNK) {
+                        break;
+                    }
+                    if (length <= 0 || chunk.remaining() < 4 + length) {
+                        return records; // the end of the log
+                    }
+                    int expected = chunk.getInt();
+                    byte[] frame = new byte[length];
+                    chunk.get(frame);
+                    crc.reset();
+                    crc.update(frame);
+                    if ((int) crc.getValue() != expected) {
+                        System.out.println("[Worker] Torn record in " + file.getName() + ", recovered up to it");
+                        return records;
+                    }
+                    replay(stores, (WorkerRequest) WireCodec.decodeFrame(frame));
+                    records++;
+                }
+                start += chunkSize;
+            }
+        }
+        return records;
+    }
+
+    // Applies one logged change again
+    static void replay(StoreIndex stores, WorkerRequest record) {
+        String role = record.getRole();
+        Object[] args = record.getArgs();
+
+        if (role.equals("manager")) {
+            stores.add((Store) args[0]);
+            return;
+        } else if (role.equals("addStores")) {
+            stores.addAll((ArrayList<Store>) args[0]);
+            return;
+        } else if (role.equals("importStore")) {
+            stores.put((Store) args[0]);
+            return;
+        } else if (role.equals("clearStores")) {
+            // A replica starting over from a new copy of its primary
+            for (Store store : new ArrayList<>(stores.values())) {
+                stores.remove(store);
+            }
+            return;
+        } else if (role.equals("dropStores")) {
+            for (String name : (ArrayList<String>) args[0]) {
+                Store store = stores.get(name);
+                if (store != null) {
+                    stores.remove(store);
+                }
+            }
+            return;
+        }
+
+        Store store = stores.get((String) args[0]);
+        if (store == null) {
+            return;
+        }
+        if (role.equals("NewProduct")) {
+            store.addProduct((Product) args[1]);
+            stores.update(store);
+        } else if (role.equals("AmountInc")) {
+            Product product = store.getProduct((String) args[1]);
+            if (product != null) {
+                product.addQuantity((Integer) args[2]);
+            }
+        } else if (role.equals("AmountDec")) {
+            take(store.getProduct((String) args[1]), (Integer) args[2]);
+        } else if (role.equals("remove")) {
+            store.hideProduct((String) args[1]);
+            stores.update(store);
+        } else if (role.equals("purchase")) {
+            Purchase purchase = (Purchase) args[1];
+            for (Product item : purchase.getPurchasedProducts()) {
+                take(store.getProduct(item.getName()), item.getQuantity());
+            }
+            store.addPurchase(purchase);
+        } else if (role.equals("movedAway")) {
+            // Copied to another worker by a migration that "dropStores" may not have finished
+            store.setMovedAway(true);
+        } else if (role.equals("rate")) {
+            store.setStars((Double) args[1]);
+            store.setNoOfReviews((Integer) args[2]);
+            stores.update(store);
+        } else {
+            System.out.println("[Worker] Unknown record in the log: " + role);
+        }
+    }
+
+    // Takes stock that was taken before. Every stock change was logged on the same side of a
+    // removal as it happened (see Store.getStockLock), so it is applied whatever the quantity.
+    private static void take(Product product, int amount) {
+        if (product != null) {
+            product.addQuantity(-amount);
+        }
+    }
+}